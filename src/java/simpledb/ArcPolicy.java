@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ArcPolicy is the Adaptive Replacement Cache policy (Megiddo and Modha,
+ * FAST 2003), in its CLOCK form, CAR (Bansal and Modha, FAST 2004), so that
+ * hits only set a reference bit and take no lock.
+ * <p>
+ * Pages seen once are kept in T1 and pages seen at least twice in T2; the
+ * ids of pages recently evicted from each are remembered in the ghost lists
+ * B1 and B2.  A miss on a page in B1 means T1 was too small, and one in B2
+ * that T2 was, so the target size p of T1 adapts to the workload.  A scan's
+ * pages stay in T1, leaving the frequently used pages in T2 alone, even
+ * when read ahead: a prefetched page's first touch is its first use.
+ */
+public class ArcPolicy implements ReplacementPolicy {
+
+    private final int m_numFrames;
+    // m_ref is 0, 1 (referenced) or TwoQPolicy.PREFETCHED (not yet used)
+    private final AtomicIntegerArray m_ref;
+
+    // protected by the BufferPool
+    private final FrameList m_t1;
+    private final FrameList m_t2;
+    private final LinkedHashSet<PageId> m_b1 = new LinkedHashSet<PageId>();
+    private final LinkedHashSet<PageId> m_b2 = new LinkedHashSet<PageId>();
+    private final PageId[] m_pids;
+    private int m_p = 0;    // target size of T1
+
+    /**
+     * @param numFrames the number of frames in the BufferPool
+     */
+    public ArcPolicy(int numFrames) {
+        m_numFrames = numFrames;
+        m_ref = new AtomicIntegerArray(numFrames);
+        m_t1 = new FrameList(numFrames);
+        m_t2 = new FrameList(numFrames);
+        m_pids = new PageId[numFrames];
+    }
+
+    /** @return the current target size of T1, the list of pages seen once */
+    public int getTarget() {
+        return m_p;
+    }
+
+    public void admit(int frame, PageId pid) {
+        int c = m_numFrames;
+        m_pids[frame] = pid;
+        m_ref.set(frame, 0);
+        if (m_b1.remove(pid)) {
+            m_p = Math.min(m_p + Math.max(1, m_b2.size() / Math.max(1, m_b1.size())), c);
+            m_t2.addLast(frame);
+        } else if (m_b2.remove(pid)) {
+            m_p = Math.max(m_p - Math.max(1, m_b1.size() / Math.max(1, m_b2.size())), 0);
+            m_t2.addLast(frame);
+        } else {
+            // keep |T1| + |B1| <= c and the whole directory <= 2c
+            if (m_t1.size() + m_b1.size() >= c && !m_b1.isEmpty())
+                removeOldest(m_b1);
+            else if (m_t1.size() + m_t2.size() + m_b1.size() + m_b2.size() >= 2 * c && !m_b2.isEmpty())
+                removeOldest(m_b2);
+            m_t1.addLast(frame);
+        }
+    }
+
+    private static void removeOldest(LinkedHashSet<PageId> ghosts) {
+        Iterator<PageId> it = ghosts.iterator();
+        it.next();
+        it.remove();
+    }
+
+    public void admitPrefetched(int frame, PageId pid) {
+        admit(frame, pid);
+        if (m_t1.contains(frame))
+            m_ref.set(frame, TwoQPolicy.PREFETCHED);
+    }
+
+    public void touch(int frame) {
+        int ref = m_ref.get(frame);
+        if (ref == 0)
+            m_ref.lazySet(frame, 1);
+        else if (ref == TwoQPolicy.PREFETCHED)
+            m_ref.compareAndSet(frame, TwoQPolicy.PREFETCHED, 0);
+    }
+
+    public int[] hottestFirst() {
+        int[] frames = new int[m_t1.size() + m_t2.size()];
+        int[] ref = FrameList.snapshot(m_ref);
+        // referenced pages move to T2 rather than being evicted, and pages
+        // seen twice outlive pages seen once
+        int at = m_t2.newestFirst(frames, 0, ref, true);
+        at = m_t1.newestFirst(frames, at, ref, true);
+        at = m_t2.newestFirst(frames, at, ref, false);
+        m_t1.newestFirst(frames, at, ref, false);
+        return frames;
+    }
+
+    public int victim(Evictable evictable) {
+        // each frame is passed over at most twice: once to clear its bit
+        // (moving it from T1 to T2), once more if it may not be evicted
+        for (int i = 0, n = 2 * (m_t1.size() + m_t2.size()) + 1; i < n; i++) {
+            boolean fromT1 = m_t1.size() > 0 && (m_t1.size() >= Math.max(1, m_p) || m_t2.size() == 0);
+            FrameList list = fromT1 ? m_t1 : m_t2;
+            int frame = list.head();
+            if (frame < 0)
+                return -1;
+            list.remove(frame);
+            if (m_ref.get(frame) == 1) {
+                m_ref.set(frame, 0);
+                m_t2.addLast(frame);
+                continue;
+            }
+            if (!evictable.canEvict(frame)) {
+                list.addLast(frame);
+                continue;
+            }
+            (fromT1 ? m_b1 : m_b2).add(m_pids[frame]);
+            m_pids[frame] = null;
+            return frame;
+        }
+        return -1;
+    }
+
+    public void remove(int frame) {
+        m_t1.remove(frame);
+        m_t2.remove(frame);
+        m_pids[frame] = null;
+        m_ref.set(frame, 0);
+    }
+}
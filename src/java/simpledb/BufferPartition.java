@@ -0,0 +1,351 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * BufferPartition is one of the partitions a BufferPool splits its frames
+ * into by page id hash.  Each partition has its own page table, frames,
+ * replacement policy and latch (its monitor), and evicts only its own
+ * pages, so accesses to pages of different partitions never contend.
+ * <p>
+ * Hits ({@link #lookup}) take no latch; misses, evictions and flushes hold
+ * the partition's latch.  A partition can be resized while in use: it
+ * grows by replacing its frames with more, and shrinks by evicting pages
+ * one at a time.  Code holding the BufferPool's monitor may take a
+ * partition latch, never the other way round.
+ * <p>
+ * Only clean pages are evicted.  Dirty pages are made clean by the
+ * BufferPool writing them back ({@link #writeBack}) once it has logged
+ * them, which it does outside the partition's latch, so that the latch is
+ * never held waiting for the log.
+ */
+class BufferPartition {
+
+    /**
+     * The frames of a partition, with their page table and replacement
+     * policy, which are replaced together when the partition grows.
+     */
+    private static final class Frames {
+        // page key -> frame; only changed while holding the partition
+        final PageTable table;
+        final AtomicReferenceArray<Page> pages;
+        final ReplacementPolicy policy;
+
+        Frames(int numFrames, ReplacementPolicy policy) {
+            table = new PageTable(numFrames);
+            pages = new AtomicReferenceArray<Page>(numFrames);
+            this.policy = policy;
+        }
+    }
+
+    private volatile Frames m_frames;   // replaced only while holding this
+    private final ReplacementPolicy.Kind m_kind; // null for a given policy
+    private volatile int m_numFrames;   // changed only while holding this
+    private int[] m_freeFrames;         // protected by this
+    private int m_numFree;              // protected by this
+    // bumped whenever a page is written back or discarded, so a prefetch
+    // that read the page from disk concurrently can tell its copy may be
+    // stale
+    private long m_writeEpoch = 0;    // protected by this
+    // eviction candidates: pages no transaction has dirtied
+    private final ReplacementPolicy.Evictable m_clean = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            return m_frames.pages.get(frame).isDirty() == null;
+        }
+    };
+
+    /**
+     * @param numFrames the number of frames in this partition
+     * @param kind the kind of replacement policy
+     */
+    BufferPartition(int numFrames, ReplacementPolicy.Kind kind) {
+        this(numFrames, kind.create(numFrames), kind);
+    }
+
+    /**
+     * @param numFrames the number of frames in this partition, which may
+     *   not grow beyond it
+     * @param policy the replacement policy, for numFrames frames
+     */
+    BufferPartition(int numFrames, ReplacementPolicy policy) {
+        this(numFrames, policy, null);
+    }
+
+    private BufferPartition(int numFrames, ReplacementPolicy policy, ReplacementPolicy.Kind kind) {
+        m_frames = new Frames(numFrames, policy);
+        m_kind = kind;
+        m_numFrames = numFrames;
+        m_freeFrames = new int[numFrames];
+        for (int i = 0; i < numFrames; i++)
+            m_freeFrames[i] = numFrames - 1 - i;
+        m_numFree = numFrames;
+    }
+
+    /** @return the number of pages this partition holds at most */
+    int numFrames() {
+        return m_numFrames;
+    }
+
+    /** @return the page in frame, or null if the frame is free */
+    Page get(int frame) {
+        return m_frames.pages.get(frame);
+    }
+
+    /**
+     * @return the resident page pid, which is marked referenced, or null
+     */
+    Page lookup(PageId pid) {
+        Frames f = m_frames;
+        int frame = f.table.get(PageTable.key(pid));
+        if (frame < 0)
+            return null;
+        Page p = f.pages.get(frame);
+        // the frame may have been reused since we looked it up, or the
+        // table may have been changing under us
+        if (p == null || !p.getId().equals(pid))
+            return null;
+        f.policy.touch(frame);
+        return p;
+    }
+
+    /** @return the frame holding page pid, or -1 */
+    private int frameOf(PageId pid) {
+        return m_frames.table.get(PageTable.key(pid));
+    }
+
+    /**
+     * Returns page pid, reading it from disk (and evicting another page of
+     * this partition) if it is not resident.
+     *
+     * @return the page, or null if it is not resident and every frame
+     *   holds a dirty page, which must be written back first
+     */
+    synchronized Page fetch(PageId pid) {
+        Page p = lookup(pid);
+        if (p != null)
+            return p;
+        int frame = allocateFrame();
+        if (frame < 0)
+            return null;
+        p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        install(frame, p, false);
+        return p;
+    }
+
+    /**
+     * @return -1 if page pid is resident, and otherwise the write epoch to
+     *   pass to {@link #installPrefetched} with a copy of the page read now
+     */
+    synchronized long prefetchEpoch(PageId pid) {
+        return frameOf(pid) >= 0 ? -1 : m_writeEpoch;
+    }
+
+    /**
+     * Installs p, read by a prefetch that started at write epoch epoch,
+     * unless the page has been loaded or a page written since, or there is
+     * no clean page to evict for it.
+     */
+    synchronized void installPrefetched(Page p, long epoch) {
+        if (frameOf(p.getId()) >= 0 || epoch != m_writeEpoch)
+            return;
+        int frame = allocateFrame();
+        if (frame >= 0)
+            install(frame, p, true);
+    }
+
+    /**
+     * Installs p, read by a warm start that started at write epoch epoch,
+     * like {@link #installPrefetched} but only into a free frame: a warm
+     * start never evicts pages the partition already has.
+     *
+     * @return true if p was installed
+     */
+    synchronized boolean installWarm(Page p, long epoch) {
+        if (frameOf(p.getId()) >= 0 || epoch != m_writeEpoch
+                || m_numFree == 0 || numResident() >= m_numFrames)
+            return false;
+        install(m_freeFrames[--m_numFree], p, false);
+        return true;
+    }
+
+    /**
+     * @return the ids of the resident pages, the one the replacement policy
+     *   would keep longest first
+     */
+    synchronized List<PageId> hottestFirst() {
+        Frames f = m_frames;
+        int[] frames = f.policy.hottestFirst();
+        List<PageId> pids = new ArrayList<PageId>(frames.length);
+        for (int frame : frames) {
+            Page p = f.pages.get(frame);
+            if (p != null)
+                pids.add(p.getId());
+        }
+        return pids;
+    }
+
+    private int numResident() {
+        return m_freeFrames.length - m_numFree;
+    }
+
+    /**
+     * @return a free frame, evicting the clean page the replacement policy
+     *   chooses if the partition is full, or -1 if every page is dirty.
+     *   Evicts only one page even if the partition is over its size, while
+     *   it shrinks.
+     */
+    private int allocateFrame() {
+        if (m_numFree == 0 || numResident() >= m_numFrames) {
+            int frame = m_frames.policy.victim(m_clean);
+            if (frame < 0)
+                return -1;
+            release(frame);
+        }
+        return m_freeFrames[--m_numFree];
+    }
+
+    private void install(int frame, Page p, boolean prefetched) {
+        Frames f = m_frames;
+        f.pages.set(frame, p);
+        f.table.put(PageTable.key(p.getId()), frame);
+        if (prefetched)
+            f.policy.admitPrefetched(frame, p.getId());
+        else
+            f.policy.admit(frame, p.getId());
+    }
+
+    /** Removes the page in frame from the partition and frees the frame. */
+    private void release(int frame) {
+        Frames f = m_frames;
+        Page p = f.pages.get(frame);
+        f.table.remove(PageTable.key(p.getId()));
+        f.pages.set(frame, null);
+        m_freeFrames[m_numFree++] = frame;
+    }
+
+    /**
+     * Sets the number of pages this partition holds at most.  Growing past
+     * the frames it has replaces them with more, keeping the pages in the
+     * same frames, and its policy with a new one that has seen each page
+     * once; shrinking leaves the frames as they are, for {@link
+     * #evictExcess} to empty.
+     *
+     * @throws IllegalArgumentException if the partition was given its
+     *   policy, which it cannot replace, and numFrames is more than it has
+     */
+    synchronized void setNumFrames(int numFrames) {
+        Frames old = m_frames;
+        int capacity = old.pages.length();
+        if (numFrames > capacity) {
+            if (m_kind == null)
+                throw new IllegalArgumentException("cannot grow a partition with a given policy");
+            Frames f = new Frames(numFrames, m_kind.create(numFrames));
+            int[] free = new int[numFrames];
+            int numFree = 0;
+            for (int i = numFrames - 1; i >= capacity; i--)
+                free[numFree++] = i;
+            for (int i = capacity - 1; i >= 0; i--) {
+                Page p = old.pages.get(i);
+                if (p == null) {
+                    free[numFree++] = i;
+                } else {
+                    f.pages.set(i, p);
+                    f.table.put(PageTable.key(p.getId()), i);
+                    f.policy.admit(i, p.getId());
+                }
+            }
+            m_freeFrames = free;
+            m_numFree = numFree;
+            m_frames = f;
+        }
+        m_numFrames = numFrames;
+    }
+
+    /**
+     * Evicts one clean page, if more pages are resident than the partition
+     * may hold.
+     *
+     * @return the number of pages still resident beyond the partition's
+     *   size, or -1 if there are some but every page is dirty
+     */
+    synchronized int evictExcess() {
+        if (numResident() <= m_numFrames)
+            return 0;
+        int frame = m_frames.policy.victim(m_clean);
+        if (frame < 0)
+            return -1;
+        release(frame);
+        return numResident() - m_numFrames;
+    }
+
+    /** @return the resident page pid, without marking it referenced, or null */
+    synchronized Page peek(PageId pid) {
+        int frame = frameOf(pid);
+        return frame < 0 ? null : m_frames.pages.get(frame);
+    }
+
+    /**
+     * Writes page p to disk and marks it clean, if it is still resident and
+     * still dirtied by dirtier; the caller has logged it.
+     *
+     * @return true if the page was written
+     */
+    synchronized boolean writeBack(Page p, TransactionId dirtier) throws IOException {
+        int frame = frameOf(p.getId());
+        if (frame < 0 || m_frames.pages.get(frame) != p || p.isDirty() != dirtier)
+            return false;
+        m_writeEpoch++;
+        // marked clean before it is written, so that a change made while it
+        // is being written dirties it again
+        p.markDirty(false, null);
+        try {
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        } catch (IOException e) {
+            p.markDirty(true, dirtier);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Removes page pid, if it is resident, without writing it.  The page
+     * is marked clean, so that a write-back of it already under way does
+     * not log it.  Bumps the write epoch, since a discarded page may be
+     * about to be rewritten on disk by rollback.
+     */
+    synchronized void discard(PageId pid) {
+        m_writeEpoch++;
+        int frame = frameOf(pid);
+        if (frame >= 0) {
+            m_frames.pages.get(frame).markDirty(false, null);
+            m_frames.policy.remove(frame);
+            release(frame);
+        }
+    }
+
+    /**
+     * Adds the dirty pages of this partition to dirty.  Takes no latch, so
+     * the pages may be cleaned, or others dirtied, meanwhile.
+     *
+     * @return the number of pages of the partition's size that are free
+     *   or hold a clean page
+     */
+    int collectDirty(List<Page> dirty) {
+        AtomicReferenceArray<Page> pages = m_frames.pages;
+        int resident = 0, clean = 0;
+        for (int i = 0; i < pages.length(); i++) {
+            Page p = pages.get(i);
+            if (p == null)
+                continue;
+            resident++;
+            if (p.isDirty() != null)
+                dirty.add(p);
+            else
+                clean++;
+        }
+        return clean + Math.max(0, m_numFrames - resident);
+    }
+}
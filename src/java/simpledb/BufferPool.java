@@ -1,10 +1,14 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.LinkedList;
-import java.util.Map;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,8 +18,42 @@ import java.util.Map;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Transactions follow strict two-phase locking on pages, with the locks
+ * granted by a {@link LockManager}: a shared lock to read a page, an
+ * exclusive one to write it.  The pages a transaction dirtied are written
+ * when it commits (FORCE), and may be written before (STEAL), write-ahead:
+ * a page is only written once its before- and after-images are in the
+ * log, so that the {@link LogFile} can roll the transaction back if it
+ * aborts.  Deadlocks are broken by a {@link DeadlockDetector}, which
+ * aborts one of the transactions involved.
+ * <p>
+ * Only clean pages are evicted.  A {@link PageCleaner} thread writes dirty
+ * pages back in the background, in file order, to keep a target fraction
+ * of the frames clean; a transaction that finds every page of a partition
+ * dirty writes them back itself.
+ * <p>
+ * A sequential scan of a table larger than the pool, which the pool could
+ * not keep anyway, reads it through a {@link ScanRing} of private frames,
+ * so that it does not push the pool's useful pages out.
+ * <p>
+ * The ids of the pages the pool holds can be saved when the database shuts
+ * down and read back in the background when it restarts ({@link
+ * WarmStart}), so that it does not restart with an empty pool.
+ * <p>
+ * Pages live in fixed arrays of frames, split into partitions by page id
+ * hash; each partition has its own page table, {@link ReplacementPolicy}
+ * and latch, and evicts only its own pages.  A cache hit looks the page's
+ * frame up in a {@link PageTable}, keyed on the page's table id and page
+ * number, and tells the policy about it without taking any lock or
+ * allocating anything; misses, evictions and flushes hold only their
+ * partition's latch.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe: the partitions and the lock manager are fixed when the pool
+ * is built, but the pool's size ({@link #resize}, one resize at a time),
+ * clean target and cleaner thread (started and stopped under a lock of its
+ * own) change while it is in use.  Those fields are volatile, so that
+ * readers take no lock.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -28,11 +66,33 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
     
+    /** The fewest frames the constructor gives a partition by default. */
+    public static final int MIN_PARTITION_PAGES = 64;
+
+    /** The number of frames in the ring of a large sequential scan. */
+    public static final int SCAN_RING_PAGES = 16;
+
+    /** The default fraction of frames the page cleaner keeps free or clean. */
+    public static final double DEFAULT_CLEAN_TARGET = 0.25;
+
+    // pages in file order: by table, then by page number
+    private static final Comparator<Page> FILE_ORDER = new Comparator<Page>() {
+        public int compare(Page a, Page b) {
+            long ka = PageTable.key(a.getId()), kb = PageTable.key(b.getId());
+            return ka < kb ? -1 : (ka == kb ? 0 : 1);
+        }
+    };
     
-    
-    private ConcurrentHashMap<Integer,Page> m_pages;
-    private int m_maxpages;
-    private LinkedList<Integer> m_lru;
+    private volatile int m_maxpages;
+    private final BufferPartition[] m_partitions;
+    private final int m_partitionShift;
+    private final LockManager m_locks = new LockManager();
+    private volatile double m_cleanTarget = DEFAULT_CLEAN_TARGET;
+    private volatile PageCleaner m_cleaner;   // changed only holding m_cleanerLock
+    private boolean m_stopped = false;        // protected by m_cleanerLock
+    private final Object m_cleanerLock = new Object();
+    private final AtomicLong m_pagesCleaned = new AtomicLong();
+    private final Object m_resizeLock = new Object();
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -41,9 +101,80 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        m_pages = new ConcurrentHashMap<Integer,Page>();
+        this(numPages, ReplacementPolicy.Kind.CLOCK);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with a policy of the given kind.  Use {@link
+     * ReplacementPolicy.Kind#TWO_Q} or {@link ReplacementPolicy.Kind#ARC}
+     * to keep large scans from flushing out frequently used pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind) {
+        this(numPages, kind, defaultPartitions(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in the given
+     * number of partitions, each evicting its pages with its own policy of
+     * the given kind.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param kind the replacement policy
+     * @param partitions the number of partitions; a power of two no
+     *   greater than numPages
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind kind, int partitions) {
+        if (partitions < 1 || Integer.bitCount(partitions) != 1
+                || (partitions > 1 && partitions > numPages))
+            throw new IllegalArgumentException("bad number of partitions: " + partitions);
+        m_maxpages = numPages;
+        m_partitions = new BufferPartition[partitions];
+        m_partitionShift = 32 - Integer.numberOfTrailingZeros(partitions);
+        for (int i = 0; i < partitions; i++) {
+            int frames = numPages / partitions + (i < numPages % partitions ? 1 : 0);
+            m_partitions[i] = new BufferPartition(frames, kind);
+        }
+    }
+
+    /**
+     * Creates a BufferPool of a single partition that caches up to numPages
+     * pages and evicts them as policy chooses.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy, for numPages frames
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         m_maxpages = numPages;
-        m_lru = new LinkedList<Integer>();
+        m_partitions = new BufferPartition[] { new BufferPartition(numPages, policy) };
+        m_partitionShift = 32;
+    }
+
+    /**
+     * @return the number of partitions the constructor uses for numPages
+     *   pages: about one per processor, but no fewer than
+     *   {@link #MIN_PARTITION_PAGES} pages each
+     */
+    public static int defaultPartitions(int numPages) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int partitions = Integer.highestOneBit(Math.max(1, 2 * cpus - 1));
+        while (partitions > 1 && numPages / partitions < MIN_PARTITION_PAGES)
+            partitions >>= 1;
+        return partitions;
+    }
+
+    /** @return the number of partitions of this buffer pool */
+    public int getNumPartitions() {
+        return m_partitions.length;
+    }
+
+    private BufferPartition partitionOf(PageId pid) {
+        // the high bits of the hash, since the page table uses the low ones
+        int h = PageTable.hash(PageTable.key(pid));
+        return m_partitions[(int) ((h & 0xffffffffL) >>> m_partitionShift)];
     }
     
     public static int getPageSize() {
@@ -69,24 +200,238 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock; it must then abort
+     * @throws DbException if the page is not resident and the dirty pages
+     *   of its partition could not be written back to make room for it
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        int key = pid.hashCode();
-        if (m_pages.containsKey(key)) {
-            m_lru.remove((Object) key);
-            m_lru.add(key);
-            return m_pages.get(key);
+        m_locks.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        if (perm == Permissions.READ_WRITE)
+            startCleaner();
+        BufferPartition part = partitionOf(pid);
+        Page p = part.lookup(pid);
+        if (p != null)
+            return p;
+        while ((p = part.fetch(pid)) == null) {
+            // every page of the partition is dirty: write them back
+            // ourselves, and have the cleaner keep ahead from now on
+            startCleaner();
+            PageCleaner cleaner = m_cleaner;
+            if (cleaner != null)
+                cleaner.wake();
+            List<Page> dirty = new ArrayList<Page>();
+            part.collectDirty(dirty);
+            try {
+                writeBack(dirty);
+            } catch (IOException e) {
+                throw new DbException("could not write back dirty pages: " + e.getMessage());
+            }
         }
-        if (m_pages.size() == m_maxpages)
-            evictPage();
-        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        m_pages.put(pid.hashCode(), p);
-        m_lru.add(key);
         return p;
     }
 
+    /**
+     * Acquires the lock {@link #getPage(TransactionId, PageId, Permissions)}
+     * would, without reading the page: for a scan that skips the page
+     * unread, but must still keep other transactions from changing it
+     * until tid completes.
+     *
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock; it must then abort
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        m_locks.acquire(tid, pid, perm == Permissions.READ_WRITE);
+    }
+
+    /**
+     * @return a ring of {@link #SCAN_RING_PAGES} private frames for a
+     *   sequential scan of a table of tablePages pages, if the table is
+     *   larger than this pool, or null if the scan should read the table
+     *   through the pool
+     */
+    public ScanRing scanRing(int tablePages) {
+        if (tablePages <= m_maxpages)
+            return null;
+        return new ScanRing(SCAN_RING_PAGES);
+    }
+
+    /**
+     * Retrieves the specified page to read, as {@link #getPage(TransactionId,
+     * PageId, Permissions)} does with READ_ONLY permission, but reading it
+     * into ring rather than into the buffer pool if it is not resident.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param ring the ring of the scan requesting the page
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock; it must then abort
+     */
+    public Page getPage(TransactionId tid, PageId pid, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        m_locks.acquire(tid, pid, false);
+        BufferPartition part = partitionOf(pid);
+        Page p = part.lookup(pid);
+        if (p != null)
+            return p;
+        long epoch = part.prefetchEpoch(pid);
+        if (epoch < 0)
+            return getPage(tid, pid, Permissions.READ_ONLY);
+        p = ring.get(pid, epoch);
+        if (p == null) {
+            // no one may change the page while we hold our lock on it, so
+            // the copy on disk is current
+            p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            ring.put(p, epoch);
+        }
+        return p;
+    }
+
+    /**
+     * Reads the specified page ahead into ring, if it is not resident, as
+     * {@link #prefetchPage(PageId)} does into the buffer pool.
+     *
+     * @param pid the ID of the page to read ahead
+     * @param ring the ring of the scan that will request the page
+     */
+    public void prefetchPage(PageId pid, ScanRing ring) {
+        long epoch = partitionOf(pid).prefetchEpoch(pid);
+        if (epoch < 0)
+            return;
+        ring.put(Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid), epoch);
+    }
+
+    /**
+     * Reads the specified page into the buffer pool, if it is not already
+     * resident, without acquiring any locks on behalf of a transaction.  The
+     * disk read happens outside the partition's latch so that it overlaps
+     * with other transactions' page accesses.  The page is dropped if its
+     * partition has no clean page to evict for it.  Used by {@link
+     * Prefetcher}.
+     *
+     * @param pid the ID of the page to read ahead
+     */
+    public void prefetchPage(PageId pid) throws DbException {
+        BufferPartition part = partitionOf(pid);
+        long epoch = part.prefetchEpoch(pid);
+        if (epoch < 0)
+            return;
+        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        part.installPrefetched(p, epoch);
+    }
+
+    /**
+     * Reads page pid into a free frame of the buffer pool for a {@link
+     * WarmStart}, if it is not already resident; like {@link
+     * #prefetchPage(PageId)}, but never evicting a page for it.
+     *
+     * @return true if the page was read into the pool
+     */
+    boolean warmPage(PageId pid) {
+        BufferPartition part = partitionOf(pid);
+        long epoch = part.prefetchEpoch(pid);
+        if (epoch < 0)
+            return false;
+        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        return part.installWarm(p, epoch);
+    }
+
+    /**
+     * @return the ids of the pages this pool holds, the ones its
+     *   replacement policies would keep longest first.  The partitions'
+     *   rankings are merged by relative rank, since each partition ranks
+     *   only its own pages.
+     */
+    List<PageId> hotPages() {
+        final List<PageId> pids = new ArrayList<PageId>();
+        final List<Double> ranks = new ArrayList<Double>();
+        for (BufferPartition part : m_partitions) {
+            List<PageId> hot = part.hottestFirst();
+            for (int i = 0; i < hot.size(); i++) {
+                pids.add(hot.get(i));
+                ranks.add((i + 0.5) / hot.size());
+            }
+        }
+        Integer[] order = new Integer[pids.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return ranks.get(a).compareTo(ranks.get(b));
+            }
+        });
+        List<PageId> hot = new ArrayList<PageId>(order.length);
+        for (int i : order)
+            hot.add(pids.get(i));
+        return hot;
+    }
+
+    /**
+     * Writes the ids of the pages this pool holds, with their recency
+     * ranks, to file f, for {@link #warmStart} to load them again after a
+     * restart.  Only pages of heap files are saved.
+     */
+    public void saveHotPages(File f) throws IOException {
+        WarmStart.save(hotPages(), f);
+    }
+
+    /**
+     * Starts reading the pages saved by {@link #saveHotPages} in file f
+     * back into this pool on background threads, hottest first as far as
+     * they fit in its free frames.  Call once the Catalog is loaded.
+     *
+     * @return the warm start, to wait for or cancel
+     * @throws IOException if f cannot be read or is not a saved page list
+     */
+    public WarmStart warmStart(File f) throws IOException {
+        return WarmStart.start(this, f);
+    }
+
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getNumPages() {
+        return m_maxpages;
+    }
+
+    /**
+     * Changes the number of pages this buffer pool caches, keeping the
+     * pages it has as far as they fit.  Growing adds frames to each
+     * partition.  Shrinking evicts pages, writing dirty ones back first,
+     * one eviction at a time, so that a concurrent getPage never waits for
+     * longer than one eviction; getPage misses meanwhile evict rather than
+     * fill free frames.
+     *
+     * @param numPages the number of pages to cache; no fewer than the
+     *   number of partitions
+     * @throws IllegalArgumentException if numPages is too small, or the
+     *   pool was created with a given policy and numPages is more than it
+     *   was created with
+     * @throws DbException if the pool could not shrink because pages kept
+     *   being dirtied
+     */
+    public void resize(int numPages) throws DbException, IOException {
+        if (numPages < m_partitions.length)
+            throw new IllegalArgumentException("bad number of pages: " + numPages);
+        synchronized (m_resizeLock) {
+            int partitions = m_partitions.length;
+            for (int i = 0; i < partitions; i++)
+                m_partitions[i].setNumFrames(numPages / partitions + (i < numPages % partitions ? 1 : 0));
+            m_maxpages = numPages;
+            for (BufferPartition part : m_partitions) {
+                for (int excess; (excess = part.evictExcess()) != 0; ) {
+                    if (excess > 0)
+                        continue;
+                    List<Page> dirty = new ArrayList<Page>();
+                    part.collectDirty(dirty);
+                    if (writeBack(dirty) == 0 && part.evictExcess() < 0)
+                        throw new DbException("could not shrink the buffer pool: all its pages are dirty");
+                }
+            }
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -99,6 +444,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        m_locks.release(tid, pid);
     }
 
     /**
@@ -109,13 +455,139 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return m_locks.holdsLock(tid, p);
+    }
+
+    /**
+     * Sets the time, in ms, a transaction waits for a lock before it is
+     * presumed deadlocked and aborted, or 0, the default, to wait until the
+     * lock is granted or the {@link DeadlockDetector} finds a deadlock.
+     * Waits last up to twice as long, so that the transactions of a
+     * deadlock do not all give up at once.
+     */
+    public void setLockTimeout(long timeout) {
+        m_locks.setTimeout(timeout);
+    }
+
+    /**
+     * Sets the fraction of frames the page cleaner keeps free or holding
+     * clean pages, by writing dirty ones back; 0 to write back only pages
+     * that must be evicted.
+     */
+    public void setCleanTarget(double target) {
+        if (target < 0 || target > 1)
+            throw new IllegalArgumentException("bad clean target: " + target);
+        m_cleanTarget = target;
+    }
+
+    /** @return the number of pages the page cleaner has written back */
+    public long getPagesCleaned() {
+        return m_pagesCleaned.get();
+    }
+
+    /** Starts the page cleaner, unless it is running or the pool is stopped. */
+    private void startCleaner() {
+        if (m_cleaner != null)
+            return;
+        synchronized (m_cleanerLock) {
+            if (m_cleaner == null && !m_stopped) {
+                m_cleaner = new PageCleaner(this);
+                m_cleaner.start();
+            }
+        }
+    }
+
+    /** Called by cleaner when it exits. */
+    void cleanerExited(PageCleaner cleaner) {
+        synchronized (m_cleanerLock) {
+            if (m_cleaner == cleaner)
+                m_cleaner = null;
+        }
+    }
+
+    /**
+     * Stops the page cleaner for good, once this pool is no longer the
+     * Database's.  Dirty pages are left as they are.
+     */
+    void stopCleaner() {
+        synchronized (m_cleanerLock) {
+            m_stopped = true;
+            if (m_cleaner != null)
+                m_cleaner.shutdown();
+        }
+    }
+
+    /**
+     * Writes back dirty pages, in file order, until at least the clean
+     * target fraction of the frames is free or holds a clean page.  Called
+     * by the {@link PageCleaner}.
+     *
+     * @return the number of dirty pages found
+     */
+    int clean() throws IOException {
+        List<Page> dirty = new ArrayList<Page>();
+        int clean = 0;
+        for (BufferPartition part : m_partitions)
+            clean += part.collectDirty(dirty);
+        int wanted = (int) Math.ceil(m_cleanTarget * m_maxpages) - clean;
+        if (wanted > 0 && !dirty.isEmpty()) {
+            Collections.sort(dirty, FILE_ORDER);
+            List<Page> batch = new ArrayList<Page>(dirty.subList(0, Math.min(wanted, dirty.size())));
+            m_pagesCleaned.addAndGet(writeBack(batch));
+        }
+        return dirty.size();
+    }
+
+    /**
+     * Writes pages back to disk in file order, write-ahead: each page that
+     * is dirty is logged, with its before-image, and the log forced up to
+     * the last of their records, before any is written.  A page cleaned,
+     * evicted or discarded meanwhile is skipped.
+     *
+     * @return the number of pages written
+     */
+    private int writeBack(List<Page> pages) throws IOException {
+        Collections.sort(pages, FILE_ORDER);
+        LogFile log = Database.getLogFile();
+        TransactionId[] dirtiers = new TransactionId[pages.size()];
+        long lsn = -1;
+        // dirtiers are read holding the log's lock, which transactions take
+        // to commit or abort once their pages are clean or discarded, so
+        // that a transaction is never logged again once it has completed
+        synchronized (log) {
+            for (int i = 0; i < dirtiers.length; i++) {
+                Page p = pages.get(i);
+                dirtiers[i] = p.isDirty();
+                if (dirtiers[i] != null) {
+                    lsn = log.logWrite(dirtiers[i], p.getBeforeImage(), p);
+                }
+            }
+        }
+        if (lsn < 0)
+            return 0;
+        log.forceUpTo(lsn);
+        int written = 0;
+        for (int i = 0; i < dirtiers.length; i++) {
+            Page p = pages.get(i);
+            if (dirtiers[i] != null && partitionOf(p.getId()).writeBack(p, dirtiers[i]))
+                written++;
+        }
+        return written;
+    }
+
+    /**
+     * @return the detector that aborts transactions deadlocked waiting for
+     *   page locks, which reports how many deadlocks it found
+     */
+    public DeadlockDetector getDeadlockDetector() {
+        return m_locks.getDeadlockDetector();
     }
 
     /**
@@ -129,6 +601,30 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        // a transaction without a Transaction object to log its commit or
+        // abort is logged here, if any of its pages were written back
+        LogFile log = Database.getLogFile();
+        try {
+            // tid only dirtied pages it locked exclusively
+            Set<PageId> written = m_locks.exclusivePages(tid);
+            if (commit) {
+                flushPages(tid);
+                for (PageId pid : written) {
+                    Page p = partitionOf(pid).peek(pid);
+                    if (p != null)
+                        p.setBeforeImage();
+                }
+                if (log.isLive(tid))
+                    log.logCommit(tid);
+            } else {
+                discardPages(tid);
+                // pages written back before the abort are rolled back
+                if (log.isLive(tid))
+                    log.logAbort(tid);
+            }
+        } finally {
+            m_locks.releaseAll(tid);
+        }
     }
 
     /**
@@ -179,13 +675,10 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for (Map.Entry<Integer, Page> e : m_pages.entrySet()) {
-            Page p = e.getValue();
-            if (p.isDirty() != null) {
-                flushPage(p.getId());
-            }
-        }
-
+        List<Page> dirty = new ArrayList<Page>();
+        for (BufferPartition part : m_partitions)
+            part.collectDirty(dirty);
+        writeBack(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -196,44 +689,30 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        partitionOf(pid).discard(pid);
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Removes the pages tid has locked exclusively, and so may have
+     * changed, from the buffer pool without writing them.
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
-        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page p = m_pages.get(pid.hashCode());        
-        hf.writePage(p);
+    void discardPages(TransactionId tid) {
+        for (PageId pid : m_locks.exclusivePages(tid))
+            partitionOf(pid).discard(pid);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-    }
-
-    /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
-     */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        int key = m_lru.poll();
-        HeapPage p = (HeapPage) m_pages.get(key);
-        try {
-            if (p.isDirty() == null) {            
-                flushPage(p.getId());
-            }
-            m_pages.remove(key);
-        } catch (IOException e){
-            System.out.println("IOException!!");
+        List<Page> pages = new ArrayList<Page>();
+        for (PageId pid : m_locks.exclusivePages(tid)) {
+            Page p = partitionOf(pid).peek(pid);
+            if (p != null)
+                pages.add(p);
         }
+        writeBack(pages);
     }
 
 }
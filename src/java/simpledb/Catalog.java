@@ -58,8 +58,13 @@ public class Catalog {
         if (name != null && file != null && pkeyField != null)
         {
             Table temp = new Table(name, pkeyField);
-            id2table.put(file.getId(),temp);
+            Table old = id2table.put(file.getId(),temp);
             table2dbfile.put(temp,file);
+            if (old != null) {
+                DbFile oldFile = table2dbfile.remove(old);
+                if (oldFile != null && oldFile != file)
+                    oldFile.close();
+            }
         }
     }
 
@@ -113,6 +118,22 @@ public class Catalog {
         //return null;
     }
 
+    /**
+     * Switches the specified table between memory-mapped and channel page
+     * reads.
+     * @see HeapFile#setMemoryMapped
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalArgumentException if the table is not stored in a HeapFile
+     */
+    public void setMemoryMapped(int tableid, boolean mapped) throws NoSuchElementException {
+        DbFile f = getDatabaseFile(tableid);
+        if (f == null)
+            throw new NoSuchElementException();
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        ((HeapFile) f).setMemoryMapped(mapped);
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return id2table.get(tableid).pkf;
@@ -128,15 +149,22 @@ public class Catalog {
         return id2table.get(id).n;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+        for (DbFile f : table2dbfile.values())
+            f.close();
         id2table.clear();
         table2dbfile.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <tt>name (field type [pk], ...) [option ...]</tt>,
+     * where the options are <tt>mmap</tt>, which opens the table in
+     * memory-mapped read mode, <tt>slotted</tt>, which stores the table in a
+     * SlottedHeapFile instead of a HeapFile, and <tt>columnar</tt>, which
+     * stores it in a ColumnFile.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -177,8 +205,38 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                boolean mmap = false;
+                boolean slotted = false;
+                boolean columnar = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.length() > 0) {
+                    for (String o : options.split("\\s+")) {
+                        if (o.toLowerCase().equals("mmap"))
+                            mmap = true;
+                        else if (o.toLowerCase().equals("slotted"))
+                            slotted = true;
+                        else if (o.toLowerCase().equals("columnar"))
+                            columnar = true;
+                        else {
+                            System.out.println("Unknown table option " + o);
+                            System.exit(0);
+                        }
+                    }
+                }
+                if (columnar && (slotted || mmap)) {
+                    System.out.println("Option columnar cannot be combined with " + (slotted ? "slotted" : "mmap"));
+                    System.exit(0);
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabFile;
+                if (columnar) {
+                    tabFile = new ColumnFile(dataFile, t);
+                } else {
+                    HeapFile tabHf = slotted ? new SlottedHeapFile(dataFile, t) : new HeapFile(dataFile, t);
+                    tabHf.setMemoryMapped(mmap);
+                    tabFile = tabHf;
+                }
+                addTable(tabFile,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ClockPolicy is the CLOCK (second chance) approximation of LRU.  Each frame
+ * has a reference bit, which a hit sets; to find a victim a hand sweeps
+ * around the frames, clearing set bits and evicting the first page whose
+ * bit is already clear.
+ * <p>
+ * A hit is a single read (and, the first time, a write) of the frame's bit,
+ * whatever the number of frames, and takes no lock.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final AtomicIntegerArray m_ref;
+    private final boolean[] m_used;    // protected by the BufferPool
+    private int m_hand = 0;            // protected by the BufferPool
+
+    /**
+     * @param numFrames the number of frames in the BufferPool
+     */
+    public ClockPolicy(int numFrames) {
+        m_ref = new AtomicIntegerArray(numFrames);
+        m_used = new boolean[numFrames];
+    }
+
+    public void admit(int frame, PageId pid) {
+        m_used[frame] = true;
+        m_ref.set(frame, 0);
+    }
+
+    public void admitPrefetched(int frame, PageId pid) {
+        admit(frame, pid);
+    }
+
+    public void touch(int frame) {
+        // skip the write when the bit is already set, so that hot pages
+        // do not bounce their cache line between readers
+        if (m_ref.get(frame) == 0)
+            m_ref.lazySet(frame, 1);
+    }
+
+    public int[] hottestFirst() {
+        int n = m_used.length, used = 0;
+        for (int f = 0; f < n; f++)
+            if (m_used[f])
+                used++;
+        // the hand evicts unreferenced pages first, in the order it reaches
+        // them, then referenced ones: so the reverse of that order
+        int[] frames = new int[used];
+        int[] ref = FrameList.snapshot(m_ref);
+        int at = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 1; i <= n; i++) {
+                int f = ((m_hand - i) % n + n) % n;
+                if (m_used[f] && (ref[f] != 0) == (pass == 0))
+                    frames[at++] = f;
+            }
+        }
+        return frames;
+    }
+
+    public int victim(Evictable evictable) {
+        int n = m_used.length;
+        // one sweep clears every reference bit, so unless hits keep
+        // setting them again, the next finds any page that may be evicted
+        for (int i = 0; i < 3 * n; i++) {
+            int frame = m_hand;
+            m_hand = (m_hand + 1) % n;
+            if (!m_used[frame])
+                continue;
+            if (m_ref.get(frame) != 0) {
+                m_ref.set(frame, 0);
+                continue;
+            }
+            if (!evictable.canEvict(frame))
+                continue;
+            m_used[frame] = false;
+            return frame;
+        }
+        return -1;
+    }
+
+    public void remove(int frame) {
+        m_used[frame] = false;
+        m_ref.set(frame, 0);
+    }
+}
@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each field of its
+ * TupleDesc in a separate chain of ColumnPages, so a scan that only needs a
+ * few columns of a wide table only reads those columns' pages.
+ * <p>
+ * Column i of a ColumnFile backed by <tt>f</tt> is stored in the file
+ * <tt>f.i</tt> (for example <tt>orders.dat.0</tt>, <tt>orders.dat.1</tt>,
+ * ...); <tt>f</tt> itself is only used to name the table.  Because the
+ * BufferPool and the log identify pages by table and page number only,
+ * page p of column c is numbered <tt>p * numColumns + c</tt> in this
+ * file's HeapPageIds.
+ * <p>
+ * Rows are appended at the end of the table and keep their position for
+ * as long as they exist; the space of deleted rows is not reused, except
+ * at the end of the table.
+ *
+ * @see ColumnPage
+ * @see #iterator(TransactionId, Set)
+ */
+public class ColumnFile implements DbFile {
+
+    private final File m_f;
+    private final TupleDesc m_td;
+    private final int m_ncols;
+
+    // per-column channels, opened lazily like HeapFile's; protected by this
+    private final RandomAccessFile[] m_rafs;
+
+    // the row the next insert goes to, or -1 until it is first needed;
+    // protected by this
+    private int m_nextRow = -1;
+
+    private final AtomicLong m_pagesRead = new AtomicLong();
+
+    /**
+     * Constructs a column file backed by the specified column files.
+     *
+     * @param f
+     *            the file naming the table; column i is stored in the file
+     *            with the same name followed by "." and i.
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        m_f = f;
+        m_td = td;
+        m_ncols = td.numFields();
+        m_rafs = new RandomAccessFile[m_ncols];
+    }
+
+    /**
+     * Returns the file naming this table.  The data of column i is in
+     * {@link #getColumnFile}(i).
+     */
+    public File getFile() {
+        return m_f;
+    }
+
+    /**
+     * @return the file storing column i
+     */
+    public File getColumnFile(int i) {
+        return columnFile(m_f, i);
+    }
+
+    private static File columnFile(File f, int i) {
+        return new File(f.getPath() + "." + i);
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return m_f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * @return the column stored on page pgNo of a ColumnFile with schema td
+     */
+    public static int getColumn(TupleDesc td, int pgNo) {
+        return pgNo % td.numFields();
+    }
+
+    /**
+     * @return the page number of page p of column c
+     */
+    public int pageNumber(int c, int p) {
+        return p * m_ncols + c;
+    }
+
+    private synchronized FileChannel getChannel(int c) throws IOException {
+        if (m_rafs[c] == null || !m_rafs[c].getChannel().isOpen())
+            m_rafs[c] = new RandomAccessFile(getColumnFile(c), "rw");
+        return m_rafs[c].getChannel();
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() {
+        for (int c = 0; c < m_ncols; c++) {
+            if (m_rafs[c] == null)
+                continue;
+            try {
+                m_rafs[c].close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            m_rafs[c] = null;
+        }
+    }
+
+    /**
+     * @return the number of pages of column c
+     */
+    public int numPages(int c) {
+        long len = getColumnFile(c).length();
+        return (int) ((len + BufferPool.PAGE_SIZE - 1) / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the total number of pages of all columns
+     */
+    public int numPages() {
+        int n = 0;
+        for (int c = 0; c < m_ncols; c++)
+            n += numPages(c);
+        return n;
+    }
+
+    /**
+     * @return the number of pages read from disk by readPage
+     */
+    public long getPagesRead() {
+        return m_pagesRead.get();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            int c = getColumn(m_td, pid.pageNumber());
+            FileChannel ch = getChannel(c);
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            long offset = (long) BufferPool.PAGE_SIZE * (pid.pageNumber() / m_ncols);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            m_pagesRead.incrementAndGet();
+            buf.clear();
+            return new ColumnPage((HeapPageId) pid, m_td, buf);
+        } catch (IOException e) {
+            System.err.println("IO error when reading page");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private void writePageData(int c, int p, byte[] data) throws IOException {
+        FileChannel ch = getChannel(c);
+        ByteBuffer buf = ByteBuffer.wrap(data, 0, BufferPool.PAGE_SIZE);
+        long offset = (long) BufferPool.PAGE_SIZE * p;
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        try {
+            writePageData(getColumn(m_td, pgNo), pgNo / m_ncols, page.getPageData());
+        } catch (IOException e) {
+            System.err.println("IO error when writing page");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Finds the row after the last row in the table.
+     */
+    private int findNextRow(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        int slots = ColumnPage.getNumSlots(m_td.getFieldType(0));
+        for (int p = numPages(0) - 1; p >= 0; p--) {
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), pageNumber(0, p)), Permissions.READ_ONLY);
+            int last = page.getLastUsedSlot();
+            if (last >= 0)
+                return p * slots + last + 1;
+        }
+        return 0;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc does not match this table!");
+        if (m_nextRow < 0)
+            m_nextRow = findNextRow(tid);
+        int row = m_nextRow;
+
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int c = 0; c < m_ncols; c++) {
+            int slots = ColumnPage.getNumSlots(m_td.getFieldType(c));
+            int p = row / slots;
+            for (int n = numPages(c); n <= p; n++)
+                writePageData(c, n, ColumnPage.createEmptyPageData());
+            HeapPageId pid = new HeapPageId(getId(), pageNumber(c, p));
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page.setValue(row % slots, t.getField(c));
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        m_nextRow++;
+        t.setRecordId(recordId(row));
+        return pages;
+    }
+
+    /**
+     * A row's RecordId names its page and slot in column 0.
+     */
+    private RecordId recordId(int row) {
+        int slots = ColumnPage.getNumSlots(m_td.getFieldType(0));
+        return new RecordId(new HeapPageId(getId(), pageNumber(0, row / slots)), row % slots);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || getColumn(m_td, rid.getPageId().pageNumber()) != 0)
+            throw new DbException("Tuple is not stored in this table!");
+        int row = (rid.getPageId().pageNumber() / m_ncols)
+                * ColumnPage.getNumSlots(m_td.getFieldType(0)) + rid.tupleno();
+
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int c = 0; c < m_ncols; c++) {
+            int slots = ColumnPage.getNumSlots(m_td.getFieldType(c));
+            HeapPageId pid = new HeapPageId(getId(), pageNumber(c, row / slots));
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page.clearValue(row % slots);
+            page.markDirty(true, tid);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that only reads the
+     * pages of the specified columns.  The returned tuples have this file's
+     * TupleDesc, but the fields of columns that were not read are null.
+     *
+     * @param fields the indexes of the columns to read, or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, Set<Integer> fields) {
+        int[] cols;
+        if (fields == null) {
+            cols = new int[m_ncols];
+            for (int c = 0; c < m_ncols; c++)
+                cols[c] = c;
+        } else if (fields.isEmpty()) {
+            // still need a column to tell which rows exist
+            cols = new int[] { 0 };
+        } else {
+            TreeSet<Integer> sorted = new TreeSet<Integer>(fields);
+            cols = new int[sorted.size()];
+            int i = 0;
+            for (int c : sorted) {
+                if (c < 0 || c >= m_ncols)
+                    throw new IllegalArgumentException("no column " + c);
+                cols[i++] = c;
+            }
+        }
+        return new ColumnFileIterator(tid, cols);
+    }
+
+    private class ColumnFileIterator implements DbFileIterator {
+        private final TransactionId m_tid;
+        private final int[] m_cols;
+        private final int[] m_slots;
+        private final ColumnPage[] m_pages;
+        private int m_row;
+        private int m_numRows;
+        private Tuple m_next;
+        private boolean m_open = false;
+
+        ColumnFileIterator(TransactionId tid, int[] cols) {
+            m_tid = tid;
+            m_cols = cols;
+            m_slots = new int[cols.length];
+            for (int i = 0; i < cols.length; i++)
+                m_slots[i] = ColumnPage.getNumSlots(m_td.getFieldType(cols[i]));
+            m_pages = new ColumnPage[cols.length];
+        }
+
+        public void open() {
+            m_row = 0;
+            // the first column read decides which rows exist
+            m_numRows = numPages(m_cols[0]) * m_slots[0];
+            Arrays.fill(m_pages, null);
+            m_next = null;
+            m_open = true;
+        }
+
+        /** Returns the page of column m_cols[i] holding row. */
+        private ColumnPage page(int i, int row)
+                throws TransactionAbortedException, DbException {
+            int p = row / m_slots[i];
+            ColumnPage page = m_pages[i];
+            if (page == null || page.getId().pageNumber() != pageNumber(m_cols[i], p)) {
+                HeapPageId pid = new HeapPageId(getId(), pageNumber(m_cols[i], p));
+                page = (ColumnPage) Database.getBufferPool().getPage(m_tid, pid, Permissions.READ_ONLY);
+                m_pages[i] = page;
+            }
+            return page;
+        }
+
+        public boolean hasNext() throws TransactionAbortedException, DbException {
+            if (!m_open)
+                return false;
+            while (m_next == null && m_row < m_numRows) {
+                int row = m_row++;
+                if (!page(0, row).isSlotUsed(row % m_slots[0]))
+                    continue;
+                Tuple t = new Tuple(m_td);
+                t.setRecordId(recordId(row));
+                for (int i = 0; i < m_cols.length; i++)
+                    t.setField(m_cols[i], page(i, row).getValue(row % m_slots[i]));
+                m_next = t;
+            }
+            return m_next != null;
+        }
+
+        public Tuple next() throws TransactionAbortedException, DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = m_next;
+            m_next = null;
+            return t;
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        public void close() {
+            m_open = false;
+            m_next = null;
+            Arrays.fill(m_pages, null);
+        }
+    }
+
+    /**
+     * Converts a HeapFile data file into the column files of a ColumnFile
+     * backed by out.  Rows are written in the order they are stored in the
+     * heap file, without the gaps left by deleted tuples.
+     *
+     * @param heapFile a data file in the format described in HeapPage
+     * @param td the schema of the table
+     * @param out the file naming the new ColumnFile
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void convert(File heapFile, TupleDesc td, File out) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int tupleSize = td.getSize();
+        int numTuples = (pageSize * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numTuples + 7) / 8;
+        int ncols = td.numFields();
+
+        // one page being assembled per column
+        OutputStream[] os = new OutputStream[ncols];
+        byte[][] pages = new byte[ncols][];
+        ByteBuffer[] bufs = new ByteBuffer[ncols];
+        int[] slots = new int[ncols];
+        int[] headers = new int[ncols];
+        for (int c = 0; c < ncols; c++) {
+            os[c] = new BufferedOutputStream(new FileOutputStream(columnFile(out, c)));
+            pages[c] = new byte[pageSize];
+            bufs[c] = ByteBuffer.wrap(pages[c]);
+            headers[c] = (ColumnPage.getNumSlots(td.getFieldType(c)) + 7) / 8;
+        }
+
+        InputStream is = new BufferedInputStream(new FileInputStream(heapFile));
+        byte[] heapPage = new byte[pageSize];
+        ByteBuffer heapBuf = ByteBuffer.wrap(heapPage);
+        try {
+            while (readFully(is, heapPage)) {
+                for (int i = 0; i < numTuples; i++) {
+                    if ((heapPage[i / 8] & (1 << (i % 8))) == 0)
+                        continue;
+                    int off = headerSize + i * tupleSize;
+                    for (int c = 0; c < ncols; c++) {
+                        Type type = td.getFieldType(c);
+                        int s = slots[c];
+                        type.serialize(type.parse(heapBuf, off), bufs[c], headers[c] + s * type.getLen());
+                        pages[c][s / 8] |= (byte) (1 << (s % 8));
+                        off += type.getLen();
+                        if (++slots[c] == ColumnPage.getNumSlots(type)) {
+                            os[c].write(pages[c]);
+                            Arrays.fill(pages[c], (byte) 0);
+                            slots[c] = 0;
+                        }
+                    }
+                }
+            }
+            for (int c = 0; c < ncols; c++)
+                if (slots[c] > 0)
+                    os[c].write(pages[c]);
+        } finally {
+            is.close();
+            for (int c = 0; c < ncols; c++)
+                os[c].close();
+        }
+    }
+
+    /**
+     * Reads a whole page from is; a short last page is padded with zeroes.
+     * @return false at end of file
+     */
+    private static boolean readFully(InputStream is, byte[] page) throws IOException {
+        int n = 0;
+        while (n < page.length) {
+            int r = is.read(page, n, page.length - n);
+            if (r < 0)
+                break;
+            n += r;
+        }
+        if (n == 0)
+            return false;
+        Arrays.fill(page, n, page.length, (byte) 0);
+        return true;
+    }
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of ColumnPage stores the values of a single column of a
+ * ColumnFile for a contiguous range of rows.  Row r of the table is in
+ * slot <tt>r % getNumSlots()</tt> of page <tt>r / getNumSlots()</tt> of
+ * each column's page chain; a slot is used exactly when the row is present
+ * in the table, and its used bit is the same on the pages of every column.
+ * <p>
+ * Values are decoded lazily from the raw page bytes, like HeapPage tuples.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int column;
+    final Type type;
+    final byte header[];
+    final Field values[];
+    final int numSlots;
+
+    // the page as read from disk; values not yet decoded (or set) are
+    // still stored here
+    private final ByteBuffer m_data;
+
+    // before-image, captured copy-on-write: null means the page has not
+    // been modified since the last setBeforeImage().  oldDataLock guards
+    // it, and is also the page's latch: setValue and clearValue hold it
+    // while they change header[] and values[], and getPageData() while it
+    // reads them, so that a page written back while its transaction
+    // changes it is never half-changed.
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId m_tid;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.  The
+     * format of a ColumnPage is the format of a HeapPage whose tuples have
+     * a single field, the column's: a bitmap of the used slots followed by
+     * floor((page size * 8) / (field size * 8 + 1)) fixed-size values.
+     * <p>
+     * The column is determined by the page number: ColumnFile numbers page
+     * p of column c as <tt>p * numColumns + c</tt>.
+     *
+     * @see ColumnFile#getColumn
+     */
+    public ColumnPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), ByteBuffer.wrap(data));
+    }
+
+    ColumnPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.column = ColumnFile.getColumn(td, id.pageNumber());
+        this.type = td.getFieldType(column);
+        this.numSlots = getNumSlots(type);
+        this.m_data = data.slice();
+
+        header = new byte[getHeaderSize(numSlots)];
+        if (m_data.remaining() < header.length + numSlots * type.getLen())
+            throw new IOException("page data too short");
+        m_data.duplicate().get(header);
+        values = new Field[numSlots];
+    }
+
+    /**
+     * @return the number of values of type t that fit on a page
+     */
+    public static int getNumSlots(Type t) {
+        return (BufferPool.getPageSize() * 8) / (t.getLen() * 8 + 1);
+    }
+
+    private static int getHeaderSize(int numSlots) {
+        return (numSlots + 7) / 8;
+    }
+
+    /** @return the number of values on a page of this page's column */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** @return the index of the column this page stores */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private int slotOffset(int i) {
+        return header.length + i * type.getLen();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= (byte) (1 << (i % 8));
+        else
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /**
+     * @return the value in slot i, or null if the slot is empty
+     */
+    public Field getValue(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        Field f = values[i];
+        if (f == null) {
+            f = type.parse(m_data, slotOffset(i));
+            values[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Stores f in slot i and marks the slot used.
+     */
+    public void setValue(int i, Field f) throws DbException {
+        if (f == null || f.getType() != type)
+            throw new DbException("value does not match the type of column " + column);
+        synchronized (oldDataLock) {
+            preModify();
+            values[i] = f;
+            markSlotUsed(i, true);
+        }
+    }
+
+    /**
+     * Empties slot i.
+     * @throws DbException if the slot is already empty
+     */
+    public void clearValue(int i) throws DbException {
+        if (!isSlotUsed(i))
+            throw new DbException("slot " + i + " of column " + column + " is empty");
+        synchronized (oldDataLock) {
+            preModify();
+            values[i] = null;
+            markSlotUsed(i, false);
+        }
+    }
+
+    /**
+     * @return the highest used slot on this page, or -1 if it is empty
+     */
+    public int getLastUsedSlot() {
+        for (int i = numSlots - 1; i >= 0; i--)
+            if (isSlotUsed(i))
+                return i;
+        return -1;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+                if (oldDataRef == null)
+                    oldDataRef = getPageData();
+            }
+            return new ColumnPage(pid, td, ByteBuffer.wrap(oldDataRef));
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = null;
+        }
+    }
+
+    private void preModify() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the ColumnPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int len = type.getLen();
+        synchronized (oldDataLock) {
+            System.arraycopy(header, 0, data, 0, header.length);
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                int off = slotOffset(i);
+                if (values[i] != null) {
+                    type.serialize(values[i], buf, off);
+                } else {
+                    ByteBuffer b = m_data.duplicate();
+                    b.position(off);
+                    b.get(data, off, len);
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return the bytes of an empty ColumnPage
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            preModify();
+        m_tid = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return m_tid;
+    }
+}
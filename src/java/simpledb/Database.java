@@ -55,11 +55,31 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, ReplacementPolicy.Kind.CLOCK);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind kind) {
+        return resetBufferPool(pages, kind, BufferPool.defaultPartitions(pages));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and number of partitions and return
+     * it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind kind,
+                                             int partitions) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            BufferPool old = _instance.get()._bufferpool;
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, kind, partitions));
+            old.stopCleaner();
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +95,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.stopCleaner();
+        old._catalog.clear();
     }
 
 }
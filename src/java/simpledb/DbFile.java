@@ -88,4 +88,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Releases any operating system resources (open files, channels) held
+     * by this DbFile.  Called by the Catalog when the table is removed.
+     * Implementations should reopen resources lazily if the file is used
+     * again afterwards.
+     */
+    public void close();
 }
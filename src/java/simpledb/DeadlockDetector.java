@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DeadlockDetector finds cycles in the wait-for graph of the transactions
+ * waiting for page locks in a {@link LockManager}, and breaks each by
+ * aborting one transaction of the cycle, chosen by the detector's
+ * {@link VictimPolicy}.  A transaction calls {@link #check} when it starts
+ * to wait for a lock, which finds any deadlock its wait completes, and
+ * again periodically while it waits.
+ * <p>
+ * The graph is not kept anywhere: it is followed through the lock table,
+ * one lock at a time.  A deadlock does not change until it is broken, so
+ * it is always found; a cycle made of edges seen at different times is
+ * confirmed edge by edge before a victim is chosen.
+ * <p>
+ * The detector counts its checks and the deadlocks it found, for
+ * monitoring; see {@link BufferPool#getDeadlockDetector}.
+ */
+public class DeadlockDetector {
+
+    /** How the transaction of a deadlock to abort is chosen. */
+    public enum VictimPolicy {
+        /** The youngest transaction, which has likely done the least work. */
+        YOUNGEST,
+        /** The transaction holding the fewest locks. */
+        FEWEST_LOCKS
+    }
+
+    private final LockManager m_locks;
+    private volatile VictimPolicy m_policy = VictimPolicy.YOUNGEST;
+    private final AtomicLong m_checks = new AtomicLong();
+    private final AtomicLong m_deadlocks = new AtomicLong();
+
+    DeadlockDetector(LockManager locks) {
+        m_locks = locks;
+    }
+
+    /** @return how victims of deadlocks are chosen */
+    public VictimPolicy getVictimPolicy() {
+        return m_policy;
+    }
+
+    /** Sets how victims of deadlocks are chosen. */
+    public void setVictimPolicy(VictimPolicy policy) {
+        m_policy = policy;
+    }
+
+    /** @return the number of times waiting transactions were checked */
+    public long getChecks() {
+        return m_checks.get();
+    }
+
+    /** @return the number of deadlocks found, each of which cost a victim */
+    public long getDeadlocks() {
+        return m_deadlocks.get();
+    }
+
+    public String toString() {
+        return "DeadlockDetector(" + m_policy + "): " + getDeadlocks() + " deadlocks in "
+            + getChecks() + " checks";
+    }
+
+    /**
+     * Aborts a victim of each deadlock tid is waiting in, if there are any.
+     * Must not be called with any of the lock table's monitors held.
+     *
+     * @param tid a transaction waiting for a lock
+     */
+    synchronized void check(TransactionId tid) {
+        m_checks.incrementAndGet();
+        for (;;) {
+            List<TransactionId> cycle = findCycle(tid, new ArrayList<TransactionId>(),
+                    new HashSet<TransactionId>());
+            if (cycle == null || !confirm(cycle))
+                return;
+            TransactionId victim = chooseVictim(cycle);
+            if (m_locks.abortWaiter(victim))
+                m_deadlocks.incrementAndGet();
+            if (victim.equals(tid))
+                return;
+        }
+    }
+
+    /**
+     * Follows the transactions t waits for, depth first.
+     *
+     * @param path the waiting transactions that led to t
+     * @param visited the transactions already followed
+     * @return a cycle of waiting transactions reachable from t, or null
+     */
+    private List<TransactionId> findCycle(TransactionId t, List<TransactionId> path,
+                                          Set<TransactionId> visited) {
+        int at = path.indexOf(t);
+        if (at >= 0)
+            return new ArrayList<TransactionId>(path.subList(at, path.size()));
+        if (!visited.add(t))
+            return null;
+        List<TransactionId> next = new ArrayList<TransactionId>();
+        if (!m_locks.waitsFor(t, next))
+            return null;
+        path.add(t);
+        for (TransactionId n : next) {
+            List<TransactionId> cycle = findCycle(n, path, visited);
+            if (cycle != null)
+                return cycle;
+        }
+        path.remove(path.size() - 1);
+        return null;
+    }
+
+    /** @return true if each transaction of cycle still waits for the next */
+    private boolean confirm(List<TransactionId> cycle) {
+        Set<TransactionId> next = new HashSet<TransactionId>();
+        for (int i = 0; i < cycle.size(); i++) {
+            next.clear();
+            if (!m_locks.waitsFor(cycle.get(i), next)
+                    || !next.contains(cycle.get((i + 1) % cycle.size())))
+                return false;
+        }
+        return true;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        for (TransactionId t : cycle) {
+            switch (m_policy) {
+            case FEWEST_LOCKS:
+                int locks = m_locks.lockCount(t), fewest = m_locks.lockCount(victim);
+                if (locks < fewest || (locks == fewest && t.getId() > victim.getId()))
+                    victim = t;
+                break;
+            default:
+                if (t.getId() > victim.getId())
+                    victim = t;
+            }
+        }
+        return victim;
+    }
+}
@@ -4,6 +4,10 @@ import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * <p>
+ * When its child is a SeqScan, or a chain of Filters ending in one, the
+ * predicates are pushed down to the scan, which skips pages that cannot
+ * contain tuples satisfying them; see {@link SeqScan#open(List)}.
  */
 public class Filter extends Operator {
 
@@ -41,7 +45,22 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        m_child.open();
+        open(new ArrayList<Predicate>());
+    }
+
+    /**
+     * Opens this filter, pushing pushed (the predicates of the Filters
+     * above it) and its own predicate down to a SeqScan below it.
+     */
+    private void open(List<Predicate> pushed) throws DbException,
+            TransactionAbortedException {
+        pushed.add(m_p);
+        if (m_child instanceof SeqScan)
+            ((SeqScan) m_child).open(pushed);
+        else if (m_child instanceof Filter)
+            ((Filter) m_child).open(pushed);
+        else
+            m_child.open();
         super.open();
     }
 
@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * FrameList is a doubly linked list of BufferPool frame numbers, stored in
+ * arrays indexed by frame, so that adding and unlinking a frame are O(1) and
+ * allocate nothing.  A frame is in at most one FrameList of a policy at a
+ * time.  Used by the list-based replacement policies.
+ */
+class FrameList {
+    private final int[] m_next;
+    private final int[] m_prev;
+    private final boolean[] m_in;
+    private int m_head = -1;
+    private int m_tail = -1;
+    private int m_size = 0;
+
+    FrameList(int numFrames) {
+        m_next = new int[numFrames];
+        m_prev = new int[numFrames];
+        m_in = new boolean[numFrames];
+        Arrays.fill(m_next, -1);
+        Arrays.fill(m_prev, -1);
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    /** @return the first (oldest) frame, or -1 if the list is empty */
+    int head() {
+        return m_head;
+    }
+
+    boolean contains(int frame) {
+        return m_in[frame];
+    }
+
+    void addLast(int frame) {
+        m_in[frame] = true;
+        m_prev[frame] = m_tail;
+        m_next[frame] = -1;
+        if (m_tail >= 0)
+            m_next[m_tail] = frame;
+        else
+            m_head = frame;
+        m_tail = frame;
+        m_size++;
+    }
+
+    /**
+     * Stores the frames of the list whose reference bit in ref is set (1),
+     * or not, from the newest to the oldest, into out from index at.
+     *
+     * @param ref a {@link #snapshot} of the reference bits, so that each
+     *   frame is either referenced or not in every call that ranks them
+     * @return the index in out after the last frame stored
+     */
+    int newestFirst(int[] out, int at, int[] ref, boolean referenced) {
+        for (int f = m_tail; f >= 0; f = m_prev[f])
+            if ((ref[f] == 1) == referenced)
+                out[at++] = f;
+        return at;
+    }
+
+    /**
+     * @return a copy of ref.  Hits set bits without the BufferPool's
+     *   latch, so a ranking that read them more than once could see a
+     *   frame as neither referenced nor unreferenced.
+     */
+    static int[] snapshot(AtomicIntegerArray ref) {
+        int[] bits = new int[ref.length()];
+        for (int f = 0; f < bits.length; f++)
+            bits[f] = ref.get(f);
+        return bits;
+    }
+
+    /** Unlinks frame, if it is in the list. */
+    void remove(int frame) {
+        if (!m_in[frame])
+            return;
+        int prev = m_prev[frame], next = m_next[frame];
+        if (prev >= 0)
+            m_next[prev] = next;
+        else
+            m_head = next;
+        if (next >= 0)
+            m_prev[next] = prev;
+        else
+            m_tail = prev;
+        m_in[frame] = false;
+        m_prev[frame] = m_next[frame] = -1;
+        m_size--;
+    }
+}
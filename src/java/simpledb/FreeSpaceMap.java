@@ -0,0 +1,272 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile may have room for another
+ * tuple, so that inserts find one without visiting every page.
+ * <p>
+ * The map is a bitmap with one bit per page, plus a summary bitmap with one
+ * bit per 64 pages, which lets {@link #findFree} skip runs of full pages 4096
+ * at a time.  A set bit means the page may have free space: inserts still
+ * check the page itself and clear the bit if it is full, so stale bits cost
+ * one wasted probe each.
+ * <p>
+ * The bitmap is stored in a sidecar file next to the data file (with the
+ * suffix <tt>.fsm</tt>).  It holds a header followed by the bitmap, one bit
+ * per page and eight pages per byte.  It is read lazily on first use.  Pages the
+ * sidecar does not cover (for instance all pages, when there is no sidecar
+ * yet) are assumed to have free space.  A page's bit is written to disk when
+ * the page becomes free, and when the page itself is written, so that the
+ * sidecar never calls a page full while its version on disk has space.
+ * <p>
+ * The header also records the length and modification time the data file
+ * had when the sidecar was last written; a sidecar whose data file has
+ * changed since, by a write that did not go through this map, is deleted
+ * when it is loaded, as is one the map failed to write.  {@link
+ * HeapFileEncoder} deletes the sidecar of a table it writes.
+ *
+ * @see HeapFile#getFreeSpaceMap
+ */
+public class FreeSpaceMap {
+
+    /** The suffix of the sidecar file's name. */
+    public static final String SUFFIX = ".fsm";
+
+    private static final int MAGIC = 0x46534d32;
+    // magic, pages covered, data file length, data file modification time
+    private static final int HEADER_SIZE = 24;
+
+    private final File m_f;
+    private final HeapFile m_hf;
+    private final File m_data;
+
+    // all fields below are protected by this
+    private RandomAccessFile m_raf;
+    private long[] m_words;       // null until loaded
+    private long[] m_summary;     // bit i set iff m_words[i] != 0
+    private int m_hint;           // no word below m_hint has a set bit
+    private int m_covered;        // number of pages the sidecar covers
+    private boolean m_failed = false;
+
+    /**
+     * @param f the sidecar file
+     * @param hf the file whose pages the map describes
+     */
+    public FreeSpaceMap(File f, HeapFile hf) {
+        m_f = f;
+        m_hf = hf;
+        m_data = hf.getFile();
+    }
+
+    /** @return the sidecar file of the map of data file data */
+    public static File sidecar(File data) {
+        return new File(data.getPath() + SUFFIX);
+    }
+
+    /**
+     * Deletes the sidecar of data file data, which is about to be
+     * rewritten other than through its HeapFile.
+     */
+    public static void discard(File data) {
+        sidecar(data).delete();
+    }
+
+    private void load() {
+        if (m_words != null)
+            return;
+        m_words = new long[0];
+        m_summary = new long[0];
+        m_hint = 0;
+        m_covered = 0;
+        int numPages = m_hf.numPages();
+        if (m_f.exists()) {
+            try {
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(m_f)));
+                try {
+                    if (m_f.length() >= HEADER_SIZE && dis.readInt() == MAGIC) {
+                        int covered = Math.min(dis.readInt(), numPages);
+                        if (dis.readLong() != m_data.length() || dis.readLong() != m_data.lastModified()) {
+                            // the map of other contents: pages it calls
+                            // full may not be
+                            dis.close();
+                            m_f.delete();
+                            covered = 0;
+                        }
+                        ensure(covered);
+                        for (int b = 0; b < (covered + 7) / 8; b++) {
+                            int bits = dis.read();
+                            if (bits < 0)
+                                break;
+                            for (int i = 0; i < 8 && b * 8 + i < covered; i++)
+                                if ((bits & (1 << i)) != 0)
+                                    setBit(b * 8 + i);
+                            m_covered = Math.min(covered, b * 8 + 8);
+                        }
+                    }
+                } finally {
+                    dis.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                m_covered = 0;
+            }
+        }
+        for (int pg = m_covered; pg < numPages; pg++)
+            setBit(pg);
+    }
+
+    private void ensure(int numPages) {
+        int words = (numPages + 63) >>> 6;
+        if (m_words.length < words)
+            m_words = Arrays.copyOf(m_words, Math.max(words, m_words.length * 2));
+        int summary = (m_words.length + 63) >>> 6;
+        if (m_summary.length < summary)
+            m_summary = Arrays.copyOf(m_summary, summary);
+    }
+
+    private void setBit(int pg) {
+        ensure(pg + 1);
+        int w = pg >>> 6;
+        m_words[w] |= 1L << pg;
+        m_summary[w >>> 6] |= 1L << w;
+        if (w < m_hint)
+            m_hint = w;
+    }
+
+    private void clearBit(int pg) {
+        int w = pg >>> 6;
+        if (w >= m_words.length)
+            return;
+        m_words[w] &= ~(1L << pg);
+        if (m_words[w] == 0)
+            m_summary[w >>> 6] &= ~(1L << w);
+    }
+
+    private boolean getBit(int pg) {
+        int w = pg >>> 6;
+        return w < m_words.length && (m_words[w] & (1L << pg)) != 0;
+    }
+
+    /**
+     * @return the lowest page that may have free space, or -1 if every
+     *   page is full
+     */
+    public synchronized int findFree() {
+        load();
+        for (int s = m_hint >>> 6; s < m_summary.length; s++) {
+            long bits = m_summary[s];
+            if (s == m_hint >>> 6)
+                bits &= -1L << m_hint;
+            if (bits != 0) {
+                int w = (s << 6) + Long.numberOfTrailingZeros(bits);
+                m_hint = w;
+                return (w << 6) + Long.numberOfTrailingZeros(m_words[w]);
+            }
+        }
+        m_hint = m_words.length;
+        return -1;
+    }
+
+    /** @return true if page pgNo may have free space */
+    public synchronized boolean isFree(int pgNo) {
+        load();
+        return getBit(pgNo);
+    }
+
+    /**
+     * Records whether page pgNo has free space after a change to it in
+     * memory.  Only a page becoming free is written to the sidecar at once;
+     * a page becoming full is written by {@link #pageWritten}.
+     */
+    public synchronized void update(int pgNo, boolean free) {
+        load();
+        boolean was = getBit(pgNo);
+        if (free)
+            setBit(pgNo);
+        else
+            clearBit(pgNo);
+        if (free && !was)
+            write(pgNo);
+    }
+
+    /**
+     * Called before page pgNo is written, so that the sidecar is checked
+     * against the data file as it was before the write.
+     */
+    public synchronized void pageWriting(int pgNo) {
+        load();
+    }
+
+    /**
+     * Records whether page pgNo, which has just been written to disk, has
+     * free space.
+     */
+    public synchronized void pageWritten(int pgNo, boolean free) {
+        load();
+        if (free)
+            setBit(pgNo);
+        else
+            clearBit(pgNo);
+        write(pgNo);
+    }
+
+    private void write(int pgNo) {
+        if (m_failed)
+            return;
+        try {
+            if (m_raf == null) {
+                m_raf = new RandomAccessFile(m_f, "rw");
+                if (m_raf.length() < HEADER_SIZE || m_raf.readInt() != MAGIC) {
+                    m_covered = 0;
+                    m_raf.setLength(0);
+                    m_raf.writeInt(MAGIC);
+                    m_raf.writeInt(0);
+                    m_raf.writeLong(0);
+                    m_raf.writeLong(0);
+                }
+            }
+            int firstByte = Math.min(m_covered, pgNo) / 8;
+            int lastByte = pgNo / 8;
+            byte[] bytes = new byte[lastByte - firstByte + 1];
+            for (int b = firstByte; b <= lastByte; b++) {
+                long word = m_words[(b * 8) >>> 6];
+                bytes[b - firstByte] = (byte) (word >>> ((b * 8) & 63));
+            }
+            m_raf.seek(HEADER_SIZE + firstByte);
+            m_raf.write(bytes);
+            if (pgNo >= m_covered) {
+                m_covered = pgNo + 1;
+                m_raf.seek(4);
+                m_raf.writeInt(m_covered);
+            }
+            // every change to the data file goes through here, so the
+            // sidecar is as up to date with it as this stamp says
+            m_raf.seek(8);
+            m_raf.writeLong(m_data.length());
+            m_raf.writeLong(m_data.lastModified());
+        } catch (IOException e) {
+            // the map is advisory: without the sidecar, pages are assumed
+            // to have free space on the next load.  A partly written one
+            // could call pages full that are not, so it goes.
+            e.printStackTrace();
+            m_failed = true;
+            close();
+            if (m_f.exists() && !m_f.delete())
+                System.err.println("could not delete " + m_f);
+        }
+    }
+
+    /** Closes the sidecar file; it is reopened if needed. */
+    public synchronized void close() {
+        if (m_raf == null)
+            return;
+        try {
+            m_raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        m_raf = null;
+    }
+}
@@ -2,8 +2,12 @@ package simpledb;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -11,8 +15,17 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * HeapFile only accesses its pages through the {@link TuplePage}
+ * interface; subclasses that store pages in another format override
+ * {@link #createPage} and {@link #createEmptyPageData}.
+ * <p>
+ * Each HeapFile keeps a {@link ZoneMap} of the value ranges on its pages in
+ * a sidecar file, which scans with pushed-down predicates use to skip
+ * pages; see {@link #iterator(TransactionId, List)}.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see SlottedHeapFile
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
@@ -20,7 +33,41 @@ public class HeapFile implements DbFile {
 
     protected File m_f;
     protected TupleDesc m_td;
-    protected HashMap<Integer,Boolean> m_freeMap;
+    // loaded on first use; see getFreeSpaceMap()
+    private FreeSpaceMap m_freeMap;
+
+    // opened lazily on first page access and kept open until close(); all
+    // page I/O uses positional reads/writes so the channel can be shared
+    // by concurrent readers and writers without seeking.
+    private volatile RandomAccessFile m_raf;
+    private volatile FileChannel m_channel;
+
+    /** Size of each memory-mapped window, in bytes; a multiple of the page size. */
+    public static final int MMAP_SEGMENT_SIZE = 1 << 26;
+
+    // read-only windows over the file, used by readPage when the file is in
+    // memory-mapped mode; segment i covers bytes [i, i+1) * MMAP_SEGMENT_SIZE
+    private volatile boolean m_mapped = false;
+    private volatile MappedByteBuffer[] m_segments = new MappedByteBuffer[0];
+
+    /** Default number of pages a scan keeps in flight ahead of itself
+        (read-ahead is off unless enabled per table). */
+    public static final int DEFAULT_PREFETCH_WINDOW = 0;
+
+    private volatile int m_prefetchWindow = DEFAULT_PREFETCH_WINDOW;
+    private final AtomicLong m_prefetchHits = new AtomicLong();
+    private final AtomicLong m_prefetchMisses = new AtomicLong();
+
+    // loaded on first use; see getZoneMap()
+    private ZoneMap m_zones;
+    private final AtomicLong m_pagesSkipped = new AtomicLong();
+
+    /** Per-thread direct buffer used to stage page reads and writes. */
+    private static final ThreadLocal<ByteBuffer> m_ioBuffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BufferPool.PAGE_SIZE);
+        }
+    };
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -33,7 +80,6 @@ public class HeapFile implements DbFile {
         // some code goes here
         m_f = f;
         m_td = td;
-        m_freeMap = new HashMap<Integer,Boolean>();
 
     }
 
@@ -73,20 +119,266 @@ public class HeapFile implements DbFile {
         return m_td;
     }
 
+    /**
+     * Returns the channel backing this file, opening it if necessary.
+     */
+    protected FileChannel getChannel() throws IOException {
+        FileChannel ch = m_channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if (m_channel == null || !m_channel.isOpen()) {
+                m_raf = new RandomAccessFile(m_f, "rw");
+                m_channel = m_raf.getChannel();
+            }
+            return m_channel;
+        }
+    }
+
+    /**
+     * Closes the channel backing this file.  The channel is reopened on the
+     * next page access, so calling this on a file that is still in use is
+     * safe, just slow: a read or write under way on another thread fails
+     * with a ClosedChannelException, and is retried on the reopened one.
+     */
+    public synchronized void close() {
+        m_segments = new MappedByteBuffer[0];
+        if (m_zones != null)
+            m_zones.close();
+        if (m_freeMap != null)
+            m_freeMap.close();
+        if (m_raf == null)
+            return;
+        try {
+            m_raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        m_raf = null;
+        m_channel = null;
+    }
+
+    /**
+     * Switches this file between memory-mapped and channel reads.  In
+     * memory-mapped mode readPage decodes pages directly out of read-only
+     * MappedByteBuffer windows of {@link #MMAP_SEGMENT_SIZE} bytes, which
+     * suits large read-mostly tables that fit in the OS page cache but not
+     * in the BufferPool.  Writes always go through the channel.
+     *
+     * @see Catalog#setMemoryMapped
+     */
+    public synchronized void setMemoryMapped(boolean mapped) {
+        m_mapped = mapped;
+        if (!mapped)
+            m_segments = new MappedByteBuffer[0];
+    }
+
+    /** @return true if this file reads pages through memory-mapped windows */
+    public boolean isMemoryMapped() {
+        return m_mapped;
+    }
+
+    /**
+     * Returns a read-only buffer positioned over page pgNo, or null if the
+     * page lies (partly) past the end of the file.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        long offset = (long) BufferPool.PAGE_SIZE * pgNo;
+        int seg = (int) (offset / MMAP_SEGMENT_SIZE);
+        int segOffset = (int) (offset % MMAP_SEGMENT_SIZE);
+        MappedByteBuffer[] segs = m_segments;
+        MappedByteBuffer mbb = seg < segs.length ? segs[seg] : null;
+        if (mbb == null || mbb.capacity() < segOffset + BufferPool.PAGE_SIZE) {
+            mbb = mapSegment(seg, segOffset + BufferPool.PAGE_SIZE);
+            if (mbb == null)
+                return null;
+        }
+        ByteBuffer page = mbb.duplicate();
+        page.position(segOffset);
+        page.limit(segOffset + BufferPool.PAGE_SIZE);
+        return page;
+    }
+
+    /**
+     * Maps window seg, or remaps it if the file has grown past a partial
+     * window.  The segment table is copied on write so readers never lock.
+     *
+     * @return the window, or null if the file is shorter than minLen bytes
+     *   into the window
+     */
+    private synchronized MappedByteBuffer mapSegment(int seg, int minLen) throws IOException {
+        MappedByteBuffer[] segs = m_segments;
+        if (seg < segs.length && segs[seg] != null && segs[seg].capacity() >= minLen)
+            return segs[seg];
+        FileChannel ch = getChannel();
+        long segStart = (long) seg * MMAP_SEGMENT_SIZE;
+        long len = Math.min(MMAP_SEGMENT_SIZE, ch.size() - segStart);
+        if (len < minLen)
+            return null;
+        MappedByteBuffer mbb = ch.map(FileChannel.MapMode.READ_ONLY, segStart, len);
+        segs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+        segs[seg] = mbb;
+        m_segments = segs;
+        return mbb;
+    }
+
+    /**
+     * Sets how many pages a sequential scan of this file reads ahead of
+     * itself on the background I/O executor; 0 disables read-ahead.  The
+     * effective window is further capped to a quarter of the BufferPool so
+     * prefetched pages are not evicted before the scan reaches them.
+     *
+     * @see Prefetcher
+     */
+    public void setPrefetchWindow(int pages) {
+        m_prefetchWindow = Math.max(0, pages);
+    }
+
+    public int getPrefetchWindow() {
+        return m_prefetchWindow;
+    }
+
+    /** @return the number of pages scans found already read ahead */
+    public long getPrefetchHits() {
+        return m_prefetchHits.get();
+    }
+
+    /** @return the number of pages scans had to wait for */
+    public long getPrefetchMisses() {
+        return m_prefetchMisses.get();
+    }
+
+    public void resetPrefetchStats() {
+        m_prefetchHits.set(0);
+        m_prefetchMisses.set(0);
+    }
+
+    void recordPrefetch(boolean hit) {
+        if (hit)
+            m_prefetchHits.incrementAndGet();
+        else
+            m_prefetchMisses.incrementAndGet();
+    }
+
+    /**
+     * Returns the zone map of this file, stored in the file
+     * <tt>getFile() + ".zm"</tt>.
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (m_zones == null)
+            m_zones = new ZoneMap(ZoneMap.sidecar(m_f), m_f, m_td);
+        return m_zones;
+    }
+
+    /**
+     * Returns the map of the pages of this file with free space, stored in
+     * the file <tt>getFile() + ".fsm"</tt>.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() {
+        if (m_freeMap == null)
+            m_freeMap = new FreeSpaceMap(FreeSpaceMap.sidecar(m_f), this);
+        return m_freeMap;
+    }
+
+    /** @return the number of pages scans skipped because of the zone map */
+    public long getPagesSkipped() {
+        return m_pagesSkipped.get();
+    }
+
+    private static ByteBuffer ioBuffer() {
+        ByteBuffer buf = m_ioBuffer.get();
+        buf.clear();
+        buf.limit(BufferPool.PAGE_SIZE);
+        return buf;
+    }
+
+    /**
+     * Reads the raw bytes of page pgNo.  Bytes past the end of the file are
+     * returned as zeroes.
+     */
+    protected byte[] readPageData(int pgNo) throws IOException {
+        ByteBuffer buf = ioBuffer();
+        long offset = (long) BufferPool.PAGE_SIZE * pgNo;
+        while (true) {
+            FileChannel ch = getChannel();
+            try {
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, offset + buf.position()) < 0)
+                        break;
+                }
+                break;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+                buf.clear();
+            }
+        }
+        while (buf.hasRemaining())
+            buf.put((byte) 0);
+        buf.flip();
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        buf.get(data);
+        return data;
+    }
+
+    /**
+     * Writes data as the contents of page pgNo.
+     */
+    protected void writePageData(int pgNo, byte[] data) throws IOException {
+        ByteBuffer buf = ioBuffer();
+        buf.put(data, 0, BufferPool.PAGE_SIZE);
+        buf.flip();
+        long offset = (long) BufferPool.PAGE_SIZE * pgNo;
+        while (true) {
+            FileChannel ch = getChannel();
+            try {
+                while (buf.hasRemaining())
+                    ch.write(buf, offset + buf.position());
+                return;
+            } catch (ClosedChannelException e) {
+                retryAfter(e);
+                buf.rewind();
+            }
+        }
+    }
+
+    /**
+     * Called when a page read or write found the channel closed.  If
+     * close() closed it on another thread, returns, and the access is
+     * retried on the channel getChannel() reopens; if an interrupt of this
+     * thread closed it, rethrows e.
+     */
+    private static void retryAfter(ClosedChannelException e) throws ClosedChannelException {
+        if (e instanceof ClosedByInterruptException)
+            throw e;
+    }
+
+    /**
+     * Decodes a page of this file from its raw bytes, which are either a
+     * byte array wrapped by readPage or a memory-mapped window.
+     */
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * @return the raw bytes of an empty page of this file
+     */
+    protected byte[] createEmptyPageData() {
+        return HeapPage.createEmptyPageData();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         try { 
-
-            RandomAccessFile raf = new RandomAccessFile(m_f,"r");
-            byte[] buffer = new byte[BufferPool.PAGE_SIZE];
-            int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
-            raf.seek(offset);
-            raf.read(buffer, 0, BufferPool.PAGE_SIZE);
-            raf.close();
             HeapPageId hpid = (HeapPageId) pid;
-            HeapPage hp = new HeapPage(hpid, buffer);
-            return hp;
+            if (m_mapped) {
+                ByteBuffer mapped = mappedPage(pid.pageNumber());
+                if (mapped != null)
+                    return createPage(hpid, mapped);
+            }
+            byte[] buffer = readPageData(pid.pageNumber());
+            return createPage(hpid, ByteBuffer.wrap(buffer));
         } catch (IOException e) {
             System.err.println("IO error when reading page");
             System.exit(1);
@@ -99,14 +391,14 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
         try { 
-            RandomAccessFile raf = new RandomAccessFile(m_f,"rw");
             byte[] buffer = page.getPageData();
             int pageNumber = page.getId().pageNumber();
-            int offset = BufferPool.PAGE_SIZE * page.getId().pageNumber();
-            m_freeMap.put(pageNumber, ((HeapPage)page).getNumEmptySlots() > 0);
-            raf.seek(offset);
-            raf.write(buffer, 0, BufferPool.PAGE_SIZE);
-            raf.close();
+            ZoneMap zones = getZoneMap();
+            zones.invalidate(pageNumber);
+            getFreeSpaceMap().pageWriting(pageNumber);
+            writePageData(pageNumber, buffer);
+            zones.update(pageNumber, (TuplePage) page);
+            getFreeSpaceMap().pageWritten(pageNumber, ((TuplePage) page).hasFreeSpace());
         } catch (IOException e) {
             System.err.println("IO error when writing page");
             System.exit(1);
@@ -128,27 +420,41 @@ public class HeapFile implements DbFile {
         // not necessary for lab1
         ArrayList<Page> pages = new ArrayList<Page>();
         BufferPool pool = Database.getBufferPool();
-        PageId pid = null;
-        HeapPage page;
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        TuplePage page = null;
 
-        for (int i = 0; i < numPages(); i++) {
-            if (m_freeMap.containsKey(i) && m_freeMap.get(i)) {
-                pid = new HeapPageId(getId(),i);
+        // pages the map calls free may be full: clear them as we find them,
+        // and give back the locks we only took to look
+        for (int pg = fsm.findFree(); pg >= 0; pg = fsm.findFree()) {
+            if (pg < numPages()) {
+                HeapPageId pid = new HeapPageId(getId(), pg);
+                boolean locked = pool.holdsLock(tid, pid);
+                page = (TuplePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.hasFreeSpace())
+                    break;
+                if (!locked)
+                    pool.releasePage(tid, pid);
             }
+            fsm.update(pg, false);
+            page = null;
         }
 
-        if (pid == null) {
-            int tableid = getId();
-            pid = new HeapPageId(tableid,numPages());
-            byte[] data = HeapPage.createEmptyPageData();
-            page = new HeapPage((HeapPageId) pid,data);
-            writePage(page);            
+        if (page == null) {
+            HeapPageId pid;
+            // concurrent inserters each append a page of their own
+            synchronized (this) {
+                pid = new HeapPageId(getId(), numPages());
+                byte[] data = createEmptyPageData();
+                writePage(createPage(pid, ByteBuffer.wrap(data)));
+            }
+            page = (TuplePage) pool.getPage(tid,pid,Permissions.READ_WRITE);            
         }
-        page = (HeapPage) pool.getPage(tid,pid,Permissions.READ_WRITE);            
         int pageNumber = page.getId().pageNumber();    
+        getZoneMap().touch(pageNumber);
         page.insertTuple(t);
+        getZoneMap().widen(pageNumber, t);
         page.markDirty(true,tid);
-        m_freeMap.put(pageNumber, ((HeapPage)page).getNumEmptySlots() > 0);
+        fsm.update(pageNumber, page.hasFreeSpace());
         pages.add(page);
         return pages;
     }
@@ -161,9 +467,10 @@ public class HeapFile implements DbFile {
         ArrayList<Page> pages = new ArrayList<Page>();
         BufferPool pool = Database.getBufferPool();
         PageId pid = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) pool.getPage(tid,pid,Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) pool.getPage(tid,pid,Permissions.READ_WRITE);
+        getZoneMap().touch(pid.pageNumber());
         page.deleteTuple(t);
-        m_freeMap.put(page.getId().pageNumber(),true);
+        getFreeSpaceMap().update(page.getId().pageNumber(), page.hasFreeSpace());
         page.markDirty(true,tid);
         pages.add(page);
         return pages;
@@ -171,16 +478,35 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that skips the pages
+     * whose zone shows that none of their tuples satisfy all of preds; they
+     * are S-locked, as if they had been read, but not fetched through the
+     * BufferPool.  Tuples on the other pages are returned whether or not
+     * they satisfy preds, so the caller must still apply them.  Pages read
+     * whose zone was unknown have it filled in.
+     *
+     * @param preds predicates over this file's TupleDesc, or null to scan
+     *   every page
+     * @see ZoneMap
+     * @see BufferPool#scanRing
+     */
+    public DbFileIterator iterator(TransactionId tid, final List<Predicate> preds) {
         class HeapFileIterator implements DbFileIterator {
 
             protected TransactionId m_tid;
             protected HeapFile m_hf;
             protected int m_tableid;
             protected int m_currpid;
-            protected HeapPage m_currp;
+            protected TuplePage m_currp;
             protected int m_numPages;
             protected Iterator<Tuple> m_it;
+            protected Prefetcher m_prefetcher;
+            protected ZoneMap m_zones;
+            protected ScanRing m_ring;
 
             public HeapFileIterator(TransactionId tid, HeapFile hf) {
                 m_tid = tid;
@@ -188,12 +514,52 @@ public class HeapFile implements DbFile {
                 m_tableid = hf.getId();
                 m_currpid = 0;
                 m_numPages = hf.numPages();
+                if (preds != null && !preds.isEmpty())
+                    m_zones = hf.getZoneMap();
+            }
+
+            /**
+             * @return the page pgNo, or null if the zone map shows that it
+             *   has no tuples matching preds
+             */
+            protected TuplePage fetchPage(int pgNo) throws TransactionAbortedException, DbException {
+                int stamp = 0;
+                HeapPageId hpid = new HeapPageId(m_tableid, pgNo);
+                BufferPool pool = Database.getBufferPool();
+                if (m_zones != null) {
+                    // lock the page before consulting its zone: holding the
+                    // S-lock, no other transaction has the page changed, so
+                    // its zone covers its committed tuples, and none can
+                    // change it until we complete, as if we had read it
+                    pool.lockPage(m_tid, hpid, Permissions.READ_ONLY);
+                    if (!m_zones.mayMatch(pgNo, preds)) {
+                        m_hf.m_pagesSkipped.incrementAndGet();
+                        return null;
+                    }
+                    stamp = m_zones.stamp(pgNo);
+                }
+                if (m_prefetcher != null)
+                    m_prefetcher.advance(pgNo);
+                TuplePage page = (TuplePage) (m_ring != null ? pool.getPage(m_tid, hpid, m_ring)
+                                              : pool.getPage(m_tid, hpid, Permissions.READ_ONLY));
+                if (m_zones != null && !m_zones.isKnown(pgNo) && page.isDirty() == null)
+                    m_zones.learn(pgNo, page, stamp);
+                return page;
             }
 
             public void open() throws TransactionAbortedException, DbException {                
-                HeapPageId hpid = new HeapPageId(m_tableid,m_currpid);
-                m_currp = (HeapPage) Database.getBufferPool().getPage(m_tid, hpid, Permissions.READ_ONLY);
-                m_it = m_currp.iterator();
+                BufferPool pool = Database.getBufferPool();
+                // a large table is read through a ring of its own, which
+                // pages read ahead must not overrun
+                m_ring = pool.scanRing(m_numPages);
+                int window = Math.min(m_hf.getPrefetchWindow(), pool.getNumPages() / 4);
+                if (m_ring != null)
+                    window = Math.min(window, m_ring.numFrames() / 2);
+                if (window > 0 && m_numPages > 1)
+                    m_prefetcher = new Prefetcher(m_hf, m_currpid, m_numPages, window, m_zones, preds,
+                                                  m_ring);
+                m_currp = fetchPage(m_currpid);
+                m_it = m_currp == null ? Collections.<Tuple>emptyList().iterator() : m_currp.iterator();
             }
 
             public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -201,8 +567,8 @@ public class HeapFile implements DbFile {
                 if (m_it.hasNext()) return true;
                 while (m_currpid < m_numPages-1) {
                     m_currpid++;
-                    HeapPageId hpid = new HeapPageId(m_tableid,m_currpid);
-                    m_currp = (HeapPage) Database.getBufferPool().getPage(m_tid, hpid, Permissions.READ_ONLY);
+                    m_currp = fetchPage(m_currpid);
+                    if (m_currp == null) continue;
                     m_it = m_currp.iterator();
                     if (m_it.hasNext()) return true;
                 }                
@@ -222,6 +588,11 @@ public class HeapFile implements DbFile {
             }
 
             public void close() {
+                if (m_prefetcher != null) {
+                    m_prefetcher.close();
+                    m_prefetcher = null;
+                }
+                m_ring = null;
                 m_currpid = 0;
                 m_it = null;
             }
@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,6 +12,10 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * The convert methods write HeapPages, for tables stored in a HeapFile;
+ * the convertSlotted methods write SlottedPages, for tables stored in a
+ * SlottedHeapFile.
  */
 
 public class HeapFileEncoder {
@@ -102,9 +109,12 @@ public class HeapFileEncoder {
     int nheaderbytes = (nrecords / 8);
     if (nheaderbytes * 8 < nrecords)
         nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    // the zone map of the table's old contents would skip pages wrongly,
+    // and its free space map would skip pages with room
+    ZoneMap.discard(outFile);
+    FreeSpaceMap.discard(outFile);
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -115,10 +125,11 @@ public class HeapFileEncoder {
     int npages = 0;
     int fieldNo = 0;
 
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+    // the page being assembled; fields are written at absolute offsets, and
+    // every byte of it is rewritten (or zeroed) before each page goes out
+    byte[] page = new byte[npagebytes];
+    ByteBuffer pageBuf = ByteBuffer.wrap(page);
+    int pos = nheaderbytes;
 
     boolean done = false;
     boolean first = true;
@@ -140,23 +151,17 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    Type.INT_TYPE.serialize(new IntField(Integer.parseInt(s.trim())), pageBuf, pos);
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
+                    Type.zero(pageBuf, pos, Type.INT_TYPE.getLen());
                 }
             }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
+                Type.STRING_TYPE.serialize(new StringField(s, Type.STRING_LEN), pageBuf, pos);
             }
+            pos += typeAr[fieldNo].getLen();
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -183,39 +188,18 @@ public class HeapFileEncoder {
         if (recordcount >= nrecords
             || done && recordcount > 0
             || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
+            Type.zero(pageBuf, 0, nheaderbytes);
+            for (int i=0; i<recordcount; i++)
+                page[i / 8] |= (byte) (1 << (i % 8));
             
             // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
+            int used = nheaderbytes + recordcount * nrecbytes;
+            Type.zero(pageBuf, used, npagebytes - used);
             
             // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
+            os.write(page);
             
+            pos = nheaderbytes;
             recordcount = 0;
             npages++;
         }
@@ -223,4 +207,85 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr)
+      throws IOException {
+      convertSlotted(inFile,outFile,npagebytes,numFields,typeAr,',');
+  }
+
+   /** Convert the specified input text file into a binary file of
+    * SlottedPages. <br>
+    * The input file has the same format as for
+    * {@link #convert(File, File, int, int, Type[], char)}; each page is
+    * filled with as many variable-length records as fit on it.
+    *
+    * @see SlottedPage
+    * @see SlottedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened or a
+    *   tuple does not fit on an empty page
+    */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+
+    TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+    // the page id is only used for the RecordIds of the tuples we insert
+    HeapPageId pid = new HeapPageId(0, 0);
+    Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    // the zone map of the table's old contents would skip pages wrongly,
+    // and its free space map would skip pages with room
+    ZoneMap.discard(outFile);
+    FreeSpaceMap.discard(outFile);
+    FileOutputStream os = new FileOutputStream(outFile);
+
+    SlottedPage page = new SlottedPage(pid, td, ByteBuffer.allocate(npagebytes));
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.length() == 0)
+            continue;
+        String[] fields = separator.split(line, -1);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < numFields; i++) {
+            String s = i < fields.length ? fields[i].trim() : "";
+            if (typeAr[i] == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(s)));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                    t.setField(i, new IntField(0));
+                }
+            } else {
+                t.setField(i, new StringField(s, Type.STRING_LEN));
+            }
+        }
+
+        // start a new page when this one is full
+        if (!page.fits(t)) {
+            if (page.getNumSlots() == 0)
+                throw new IOException("tuple does not fit on a page: " + line);
+            os.write(page.getPageData());
+            npages++;
+            page = new SlottedPage(pid, td, ByteBuffer.allocate(npagebytes));
+        }
+        try {
+            page.insertTuple(t);
+        } catch (DbException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    // flush the last page, or an empty page if the file is empty
+    if (page.getNumSlots() > 0 || npages == 0)
+        os.write(page.getPageData());
+    br.close();
+    os.close();
+  }
 }
@@ -2,16 +2,22 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages are materialized lazily: the constructor only decodes the header,
+ * and a slot's Tuple is decoded from the raw page bytes the first time the
+ * iterator (or a caller) asks for it.  Decoded and inserted tuples are
+ * cached per slot; deleting a tuple drops its cache entry.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
@@ -19,8 +25,22 @@ public class HeapPage implements Page {
     final Tuple tuples[];
     final int numSlots;
 
+    // the page as read from disk; never written to.  Tuples are decoded
+    // out of it on demand and cached in tuples[]: a used slot whose entry
+    // in tuples[] is null still holds its on-disk contents here.
+    private final ByteBuffer m_data;
+
+    // before-image, captured copy-on-write: null means the page has not
+    // been modified since the last setBeforeImage(), so the before-image is
+    // the current contents.  m_modified is false until the first mutation
+    // after construction, when the raw page data is still current.
+    // oldDataLock guards both, and is also the page's latch: inserts and
+    // deletes hold it while they change header[] and tuples[], and
+    // getPageData() while it reads them, so that a page written back while
+    // its transaction changes it is never logged or written half-changed.
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private boolean m_modified = false;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -39,28 +59,33 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of a buffer, in the format
+     * described in {@link #HeapPage(HeapPageId, byte[])}.  Used by
+     * memory-mapped HeapFiles to decode a page straight out of the mapped
+     * region without copying it into a byte array first.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.m_data = data.slice();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        //System.out.println(getHeaderSize());
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        if (m_data.remaining() < header.length + numSlots * td.getSize())
+            throw new IOException("page data too short");
+        m_data.duplicate().get(header);
+
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)            
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+    }
 
-        setBeforeImage();
+    /** @return the offset of slot i in the raw page data */
+    private int slotOffset(int i) {
+        return header.length + i * td.getSize();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -89,6 +114,11 @@ public class HeapPage implements Page {
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                if (oldDataRef == null) {
+                    if (!m_modified)
+                        return new HeapPage(pid, m_data.duplicate());
+                    oldDataRef = getPageData();
+                }
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -99,10 +129,27 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents of this page its before-image.  The copy is
+     * deferred until the page is next modified.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Called before every modification: if this is the first change since
+     * the last setBeforeImage(), snapshot the page as its before-image.
+     */
+    private void preModify() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = getPageData();
+        m_modified = true;
         }
     }
 
@@ -115,39 +162,51 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in slot i, decoding it from the raw page data if
+     * it has not been decoded yet.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    Tuple getTuple(int i) {
+        if (!isSlotUsed(i))
             return null;
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = readTuple(i);
+            tuples[i] = t;
         }
+        return t;
+    }
 
+    /**
+     * Decodes the tuple stored in slot slotId of the raw page data.
+     */
+    private Tuple readTuple(int slotId) {
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        int off = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(m_data, off));
+            off += type.getLen();
         }
 
         return t;
     }
 
+    /** Copies len bytes of the raw page data at offset off into dst. */
+    private void copyRaw(int off, byte[] dst, int dstOff, int len) {
+        if (m_data.hasArray()) {
+            System.arraycopy(m_data.array(), m_data.arrayOffset() + off, dst, dstOff, len);
+        } else {
+            ByteBuffer b = m_data.duplicate();
+            b.position(off);
+            b.get(dst, dstOff, len);
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -161,63 +220,47 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[len];
 
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        synchronized (oldDataLock) {
+            // never modified: the raw page is still current
+            if (!m_modified) {
+                copyRaw(0, data, 0, Math.min(len, m_data.capacity()));
+                return data;
             }
+            serialize(data);
         }
+        return data;
+    }
+
+    /** Encodes the header and tuples of this page into data. */
+    private void serialize(byte[] data) {
+        // create the header of the page
+        System.arraycopy(header, 0, data, 0, header.length);
 
-        // create the tuples
+        // create the tuples; empty slots and padding are left as the zeroes
+        // the array was allocated with
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int tupleSize = td.getSize();
         for (int i=0; i<tuples.length; i++) {
+            if (!isSlotUsed(i))
+                continue;
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+            int off = slotOffset(i);
 
-                }
+            // slot that was never decoded: copy its bytes through unchanged
+            if (tuples[i] == null) {
+                copyRaw(off, data, off, tupleSize);
                 continue;
             }
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                Type type = td.getFieldType(j);
+                type.serialize(tuples[i].getField(j), buf, off);
+                off += type.getLen();
             }
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -248,8 +291,11 @@ public class HeapPage implements Page {
         PageId pageid = t.getRecordId().getPageId();
         if (pageid != this.pid || !isSlotUsed(slot))
             throw new DbException("Tuple does not exist in this page!");
-        markSlotUsed(slot, false);
-        tuples[slot] = null;
+        synchronized (oldDataLock) {
+            preModify();
+            markSlotUsed(slot, false);
+            tuples[slot] = null;
+        }
     }
 
 
@@ -263,10 +309,13 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        int slot = getNextEmpty();
-        tuples[slot] = t;
-        t.setRecordId(new RecordId(pid,slot));
-        markSlotUsed(slot, true);
+        synchronized (oldDataLock) {
+            int slot = getNextEmpty();
+            preModify();
+            tuples[slot] = t;
+            t.setRecordId(new RecordId(pid,slot));
+            markSlotUsed(slot, true);
+        }
     }
 
     public int getNextEmpty() throws DbException
@@ -283,11 +332,13 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
 
-    private TransactionId m_tid;
+    private volatile TransactionId m_tid;
 
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+        if (dirty)
+            preModify();
         m_tid = dirty ? tid : null;
     }
 
@@ -318,6 +369,16 @@ public class HeapPage implements Page {
         return count;
     }
 
+    /**
+     * @return true if this page has an empty slot
+     */
+    public boolean hasFreeSpace() {
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                return true;
+        return false;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -352,28 +413,33 @@ public class HeapPage implements Page {
         
         class HeapPageIterator implements Iterator<Tuple> {
             private HeapPage p;
-            private int numUsed;
             private int curr;
 
             public HeapPageIterator(HeapPage p) {
                 this.p = p;
-                numUsed = p.getNumTuples()-p.getNumEmptySlots();
-                curr = 0;
+                curr = nextUsed(0);
+            }
+
+            private int nextUsed(int i) {
+                while (i < p.numSlots && !p.isSlotUsed(i))
+                    i++;
+                return i;
             }
             
             public boolean hasNext(){
-            //implement
-                return curr < numUsed;
+                return curr < p.numSlots;
             }
             
             public Tuple next(){
-            //implement
-                //do something with p.tuples[i]
-                return p.tuples[curr++];
+                if (curr >= p.numSlots)
+                    throw new NoSuchElementException();
+                Tuple t = p.getTuple(curr);
+                curr = nextUsed(curr + 1);
+                return t;
             }
             
             public void remove(){
-                return;
+                throw new UnsupportedOperationException();
             }
         }
         
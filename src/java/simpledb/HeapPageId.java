@@ -58,9 +58,11 @@ public class HeapPageId implements PageId {
      */
     public boolean equals(Object o) {
         // some code goes here
-        if (o instanceof PageId)
-            return ((PageId) o).hashCode() == this.hashCode();
-        return false;
+        if (!(o instanceof PageId))
+            return false;
+        // hash codes of pages of different tables may collide
+        PageId other = (PageId) o;
+        return other.getTableId() == m_tableid && other.pageNumber() == m_pageNumber;
     }
 
     /**
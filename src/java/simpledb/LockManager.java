@@ -0,0 +1,317 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants the page-level shared and exclusive locks of strict
+ * two-phase locking on behalf of the BufferPool.  A transaction may hold a
+ * shared lock on a page together with other transactions, or an exclusive
+ * lock alone; a transaction that is the only holder of a shared lock may
+ * upgrade it to an exclusive one.  A transaction asking for a shared lock
+ * on a page it holds no lock on waits behind transactions waiting for an
+ * exclusive one.  Locks are only released all together, when the
+ * transaction completes (or, riskily, by {@link #release}).
+ * <p>
+ * The lock table is split into {@link #STRIPES} stripes by page, each a
+ * small hash table with its own monitor, which transactions waiting for a
+ * page of the stripe wait on.  The locks each transaction holds are also
+ * kept per transaction, so that a transaction asking again for a lock it
+ * holds takes no monitor, and completing a transaction need not search the
+ * lock table.
+ * <p>
+ * Waiting transactions are recorded, so that the {@link DeadlockDetector}
+ * can follow who waits for whom.  A transaction checks for a deadlock when
+ * it starts waiting, and again every {@link #CHECK_INTERVAL} ms while it
+ * waits; a transaction chosen as the victim of a deadlock stops waiting and
+ * is aborted with a TransactionAbortedException.  Transactions may also be
+ * given a timeout, after which they are presumed deadlocked.
+ */
+class LockManager {
+
+    /** The number of stripes the lock table is split into. */
+    public static final int STRIPES = 64;
+
+    /** The time, in ms, between deadlock checks of a waiting transaction. */
+    public static final long CHECK_INTERVAL = 50;
+
+    /** The lock on one page; protected by its stripe. */
+    private static class PageLock {
+        final Set<TransactionId> holders = new HashSet<TransactionId>(4);
+        boolean exclusive = false;
+        int waiters = 0;
+        final Set<TransactionId> exclusiveWaiters = new HashSet<TransactionId>(4);
+
+        /**
+         * @return true if tid may be granted the lock now.  New readers
+         *   queue behind waiting writers, so that writers are not starved.
+         */
+        boolean grantable(TransactionId tid, boolean exclusive) {
+            if (exclusive)
+                return holders.isEmpty() || (holders.size() == 1 && holders.contains(tid));
+            if (holders.contains(tid))
+                return true;
+            return !this.exclusive && exclusiveWaiters.isEmpty();
+        }
+
+        void grant(TransactionId tid, boolean exclusive) {
+            holders.add(tid);
+            if (exclusive)
+                this.exclusive = true;
+        }
+    }
+
+    /** What a waiting transaction waits for. */
+    private static class Wait {
+        final PageId pid;
+        final boolean exclusive;
+        volatile boolean victim = false;
+        boolean granted = false; // protected by the stripe
+
+        Wait(PageId pid, boolean exclusive) {
+            this.pid = pid;
+            this.exclusive = exclusive;
+        }
+    }
+
+    private final List<Map<PageId,PageLock>> m_stripes;
+    // transaction -> the pages it has locked -> whether exclusively
+    private final ConcurrentHashMap<TransactionId,ConcurrentHashMap<PageId,Boolean>> m_held;
+    private final ConcurrentHashMap<TransactionId,Wait> m_waiting;
+    private final DeadlockDetector m_detector;
+    private volatile long m_timeout = 0;
+
+    LockManager() {
+        m_stripes = new ArrayList<Map<PageId,PageLock>>(STRIPES);
+        for (int i = 0; i < STRIPES; i++)
+            m_stripes.add(new HashMap<PageId,PageLock>());
+        m_held = new ConcurrentHashMap<TransactionId,ConcurrentHashMap<PageId,Boolean>>();
+        m_waiting = new ConcurrentHashMap<TransactionId,Wait>();
+        m_detector = new DeadlockDetector(this);
+    }
+
+    DeadlockDetector getDeadlockDetector() {
+        return m_detector;
+    }
+
+    /**
+     * Sets the time, in ms, a transaction waits for a lock before it is
+     * presumed deadlocked, plus a random fraction of it so that the
+     * transactions of a deadlock do not all give up at once; 0, the
+     * default, for no limit.
+     */
+    void setTimeout(long timeout) {
+        m_timeout = timeout;
+    }
+
+    private Map<PageId,PageLock> stripeOf(PageId pid) {
+        return m_stripes.get(PageTable.hash(PageTable.key(pid)) & (STRIPES - 1));
+    }
+
+    /**
+     * Acquires a lock on page pid for transaction tid, waiting for other
+     * transactions to release theirs if necessary.
+     *
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if tid was chosen as the victim
+     *   of a deadlock, or waited too long, and should abort
+     */
+    void acquire(TransactionId tid, PageId pid, boolean exclusive)
+        throws TransactionAbortedException {
+        ConcurrentHashMap<PageId,Boolean> held = m_held.get(tid);
+        if (held != null) {
+            Boolean x = held.get(pid);
+            if (x != null && (x || !exclusive))
+                return;
+        }
+
+        Map<PageId,PageLock> stripe = stripeOf(pid);
+        PageLock lock;
+        Wait wait = null;
+        synchronized (stripe) {
+            lock = stripe.get(pid);
+            if (lock == null) {
+                lock = new PageLock();
+                stripe.put(pid, lock);
+            }
+            if (lock.grantable(tid, exclusive)) {
+                lock.grant(tid, exclusive);
+            } else {
+                wait = new Wait(pid, exclusive);
+                lock.waiters++;
+                if (exclusive)
+                    lock.exclusiveWaiters.add(tid);
+                m_waiting.put(tid, wait);
+            }
+        }
+        if (wait != null)
+            await(tid, stripe, lock, wait);
+
+        if (held == null) {
+            held = new ConcurrentHashMap<PageId,Boolean>();
+            ConcurrentHashMap<PageId,Boolean> raced = m_held.putIfAbsent(tid, held);
+            if (raced != null)
+                held = raced;
+        }
+        if (exclusive)
+            held.put(pid, Boolean.TRUE);
+        else
+            held.putIfAbsent(pid, Boolean.FALSE);
+    }
+
+    /**
+     * Waits until tid is granted the lock it waits for, checking for
+     * deadlocks (with no stripe's monitor held) every CHECK_INTERVAL ms.
+     */
+    private void await(TransactionId tid, Map<PageId,PageLock> stripe, PageLock lock, Wait wait)
+        throws TransactionAbortedException {
+        long timeout = m_timeout;
+        long deadline = timeout <= 0 ? Long.MAX_VALUE
+            : System.currentTimeMillis() + timeout + (long) (Math.random() * timeout);
+        boolean granted = false;
+        try {
+            while (!granted) {
+                m_detector.check(tid);
+                synchronized (stripe) {
+                    long now = System.currentTimeMillis();
+                    long until = Math.min(now + CHECK_INTERVAL, deadline);
+                    while (!wait.victim && !lock.grantable(tid, wait.exclusive) && now < until) {
+                        stripe.wait(until - now);
+                        now = System.currentTimeMillis();
+                    }
+                    if (wait.victim)
+                        throw new TransactionAbortedException();
+                    if (lock.grantable(tid, wait.exclusive)) {
+                        lock.grant(tid, wait.exclusive);
+                        wait.granted = granted = true;
+                    } else if (now >= deadline) {
+                        throw new TransactionAbortedException();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // keep the interrupt for whoever stops this thread with it
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            synchronized (stripe) {
+                lock.waiters--;
+                lock.exclusiveWaiters.remove(tid);
+                if (!granted) {
+                    if (lock.holders.isEmpty() && lock.waiters == 0)
+                        stripe.remove(wait.pid);
+                    // readers queued behind us may go ahead
+                    stripe.notifyAll();
+                }
+            }
+            m_waiting.remove(tid);
+        }
+    }
+
+    /** Releases tid's lock on page pid, if it holds one. */
+    void release(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId,Boolean> held = m_held.get(tid);
+        if (held != null && held.remove(pid) != null)
+            unlock(tid, pid);
+    }
+
+    /** Releases all of tid's locks. */
+    void releaseAll(TransactionId tid) {
+        ConcurrentHashMap<PageId,Boolean> held = m_held.remove(tid);
+        if (held == null)
+            return;
+        for (PageId pid : held.keySet())
+            unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Map<PageId,PageLock> stripe = stripeOf(pid);
+        synchronized (stripe) {
+            PageLock lock = stripe.get(pid);
+            if (lock == null || !lock.holders.remove(tid))
+                return;
+            if (lock.holders.isEmpty()) {
+                lock.exclusive = false;
+                if (lock.waiters == 0)
+                    stripe.remove(pid);
+            }
+            if (lock.waiters > 0)
+                stripe.notifyAll();
+        }
+    }
+
+    /** @return true if tid holds a lock on page pid */
+    boolean holdsLock(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId,Boolean> held = m_held.get(tid);
+        return held != null && held.containsKey(pid);
+    }
+
+    /** @return the number of pages tid holds locks on */
+    int lockCount(TransactionId tid) {
+        ConcurrentHashMap<PageId,Boolean> held = m_held.get(tid);
+        return held == null ? 0 : held.size();
+    }
+
+    /** @return the pages tid holds exclusive locks on */
+    Set<PageId> exclusivePages(TransactionId tid) {
+        Set<PageId> pages = new HashSet<PageId>();
+        ConcurrentHashMap<PageId,Boolean> held = m_held.get(tid);
+        if (held != null) {
+            for (Map.Entry<PageId,Boolean> e : held.entrySet())
+                if (e.getValue())
+                    pages.add(e.getKey());
+        }
+        return pages;
+    }
+
+    /**
+     * Adds the transactions tid waits for to waitsFor: the holders of the
+     * lock it waits for and, if it waits for a shared lock, the
+     * transactions waiting for an exclusive one ahead of it.
+     *
+     * @return false if tid is not waiting, or has been chosen as a victim
+     */
+    boolean waitsFor(TransactionId tid, Collection<TransactionId> waitsFor) {
+        Wait wait = m_waiting.get(tid);
+        if (wait == null || wait.victim)
+            return false;
+        Map<PageId,PageLock> stripe = stripeOf(wait.pid);
+        synchronized (stripe) {
+            PageLock lock = stripe.get(wait.pid);
+            if (lock == null || m_waiting.get(tid) != wait)
+                return false;
+            for (TransactionId t : lock.holders)
+                if (!t.equals(tid))
+                    waitsFor.add(t);
+            if (!wait.exclusive)
+                waitsFor.addAll(lock.exclusiveWaiters);
+        }
+        return true;
+    }
+
+    /**
+     * Aborts tid, if it is waiting for a lock: it stops waiting and throws
+     * a TransactionAbortedException.
+     *
+     * @return true if tid was waiting, and will abort
+     */
+    boolean abortWaiter(TransactionId tid) {
+        Wait wait = m_waiting.get(tid);
+        if (wait == null)
+            return false;
+        Map<PageId,PageLock> stripe = stripeOf(wait.pid);
+        synchronized (stripe) {
+            if (wait.granted)
+                return false;
+            wait.victim = true;
+            stripe.notifyAll();
+        }
+        return true;
+    }
+}
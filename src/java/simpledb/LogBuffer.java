@@ -0,0 +1,199 @@
+package simpledb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * LogBuffer collects the bytes of log records appended to a {@link
+ * LogFile} in memory, so that the log is written a large buffer at a time
+ * rather than a field at a time.
+ * <p>
+ * Records are appended to the active one of two direct buffers of {@link
+ * #BUFFER_SIZE} bytes.  When it fills, it is handed to a flusher thread,
+ * which writes it to the file at its offset while records go on being
+ * appended to the other buffer; an append waits only if the other buffer
+ * fills before the flusher is done.  {@link #flush} writes everything
+ * appended so far, for the log to be forced or read back.  The flusher is
+ * started when first needed and exits after {@link #IDLE} ms without work.
+ * <p>
+ * Appending and flushing are done holding the LogFile's lock; the flusher
+ * never takes it.
+ */
+class LogBuffer extends OutputStream {
+
+    /** The size in bytes of each of the two buffers. */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    /** The time, in ms, the flusher waits for a buffer before it exits. */
+    public static final long IDLE = 1000;
+
+    private FileChannel m_channel;      // protected by the LogFile
+    private ByteBuffer m_active;        // protected by the LogFile
+    private long m_activeOffset;        // where m_active goes; protected by the LogFile
+
+    // the buffer not being appended to: free, or full and being written
+    private ByteBuffer m_spare = null;  // protected by this
+    private ByteBuffer m_full = null;   // protected by this
+    private long m_fullOffset;          // protected by this
+    private boolean m_writing = false;  // protected by this
+    private IOException m_error = null; // protected by this
+    private Thread m_flusher = null;    // protected by this
+
+    /**
+     * @param channel the log file
+     * @param offset the offset in the file the first byte appended goes to
+     */
+    LogBuffer(FileChannel channel, long offset) {
+        m_channel = channel;
+        m_activeOffset = offset;
+    }
+
+    /**
+     * Flushes the buffer, and appends to file channel at offset from now
+     * on, after the log file has been replaced or rewritten.
+     */
+    void reset(FileChannel channel, long offset) throws IOException {
+        flush();
+        m_channel = channel;
+        m_activeOffset = offset;
+    }
+
+    /** @return the offset in the file of the end of the bytes appended */
+    long end() {
+        return m_activeOffset + (m_active == null ? 0 : m_active.position());
+    }
+
+    public void write(int b) throws IOException {
+        if (m_active == null || !m_active.hasRemaining())
+            handOff();
+        m_active.put((byte) b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (m_active == null || !m_active.hasRemaining())
+                handOff();
+            int n = Math.min(len, m_active.remaining());
+            m_active.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Hands the active buffer, if it holds anything, to the flusher, and
+     * makes the spare one active.
+     */
+    private void handOff() throws IOException {
+        if (m_active == null) {
+            m_active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            return;
+        }
+        ByteBuffer full = m_active;
+        synchronized (this) {
+            awaitSpare();
+            if (m_spare == null)
+                m_spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            full.flip();
+            m_full = full;
+            m_fullOffset = m_activeOffset;
+            m_active = m_spare;
+            m_spare = null;
+            if (m_flusher == null) {
+                m_flusher = new Flusher();
+                m_flusher.start();
+            }
+            notifyAll();
+        }
+        m_activeOffset += full.limit();
+    }
+
+    /**
+     * Waits, holding this, until no buffer is waiting to be written or
+     * being written.
+     */
+    private void awaitSpare() throws IOException {
+        boolean interrupted = false;
+        while (m_full != null || m_writing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (m_error != null) {
+            IOException e = m_error;
+            m_error = null;
+            throw e;
+        }
+    }
+
+    /** Writes all the bytes appended so far to the file, without forcing it. */
+    public void flush() throws IOException {
+        synchronized (this) {
+            awaitSpare();
+        }
+        if (m_active != null && m_active.position() > 0) {
+            m_active.flip();
+            long offset = m_activeOffset;
+            while (m_active.hasRemaining())
+                offset += m_channel.write(m_active, offset);
+            m_activeOffset = offset;
+            m_active.clear();
+        }
+    }
+
+    /** Writes the full buffers handed off to it, in order. */
+    private class Flusher extends Thread {
+        Flusher() {
+            super("LogFlusher");
+            setDaemon(true);
+        }
+
+        public void run() {
+            LogBuffer lb = LogBuffer.this;
+            while (true) {
+                ByteBuffer buf;
+                long offset;
+                FileChannel channel;
+                synchronized (lb) {
+                    if (m_full == null) {
+                        try {
+                            lb.wait(IDLE);
+                        } catch (InterruptedException e) {
+                            // exit if idle
+                        }
+                    }
+                    if (m_full == null) {
+                        m_flusher = null;
+                        return;
+                    }
+                    buf = m_full;
+                    offset = m_fullOffset;
+                    channel = m_channel;
+                    m_full = null;
+                    m_writing = true;
+                }
+                IOException error = null;
+                try {
+                    while (buf.hasRemaining())
+                        offset += channel.write(buf, offset);
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (lb) {
+                    buf.clear();
+                    m_spare = buf;
+                    m_writing = false;
+                    if (error != null)
+                        m_error = error;
+                    lb.notifyAll();
+                }
+            }
+        }
+    }
+}
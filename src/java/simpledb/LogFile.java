@@ -2,8 +2,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.TimeUnit;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -32,6 +34,32 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Log buffer and LSNs: </u>
+<p>
+
+Records are not written to the file as they are appended, but
+serialized into an in-memory LogBuffer, which writes them out a large
+buffer at a time on a flusher thread, and all at once whenever the log
+is forced or read back.  A log sequence number (LSN) names a position in
+the log: the file offset plus the number of bytes truncation has removed
+before it, so that LSNs only grow.  logWrite returns the LSN of the end
+of its record, and forceUpTo(lsn) forces the log only as far as needed
+for the records before it to be durable, which is what a page write-back
+must wait for under write-ahead logging.
+
+<p>
+<u> Group commit: </u>
+<p>
+
+logCommit appends its COMMIT record holding this object's lock, like
+every other append, but waits for the log to be forced without it.
+Commits, and forceUpTo calls, that arrive while the log is being forced,
+or while a commit waits up to the group commit delay (see
+setGroupCommitDelay) for others to join it, are forced together by one
+of them, the leader, with a single force(); the others wait for it and
+are released together.  Callers of logCommit must not hold this object's
+lock.
 */
 
 /**
@@ -51,15 +79,27 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  A serialized page starts
+with the short type tags its class and its id's class are registered
+under in PageCodecs, which builds it back from them.
+
+<li>DELTA records log a change to a page more compactly than UPDATE
+records: a serialized PageId (see readPageId() and writePageId())
+followed by a PageDelta, the byte ranges of the page that changed with
+their contents before and after.  The first change to each page after a
+checkpoint is logged with an UPDATE record, later ones with DELTA
+records, unless the delta would be no smaller than the images.  A delta
+is taken against the after-image of the page's previous record, not the
+transaction's before-image, since a transaction may log a page more than
+once.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
@@ -82,8 +122,10 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
+    final static int SHORT_SIZE = 2;
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
@@ -93,6 +135,32 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // the data of the last after-image logged of each page since the last
+    // checkpoint, which the page's next delta is relative to
+    private final HashMap<PageId,byte[]> loggedImages = new HashMap<PageId,byte[]>(); // protected by this
+
+    /** The default group commit delay, in microseconds. */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY = 0;
+
+    /**
+     * The default number of threads recovery redoes and undoes changes
+     * on; more than the processors, since they mostly wait for page reads.
+     */
+    public static final int DEFAULT_RECOVERY_THREADS =
+        Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private LogBuffer out; // created by the first append; protected by this
+    private DataOutputStream dos; // appends to out; protected by this
+    private long lsnBase = 0; // the LSN of file offset 0; protected by this
+    private final Object groupLock = new Object();
+    private long durableLsn = 0; // the log is forced up to here; protected by groupLock
+    private boolean leading = false; // a force leads a group; protected by groupLock
+    private boolean forcing = false; // its force is under way; protected by groupLock
+    private long commitForces = 0; // protected by groupLock
+    private volatile long groupCommitDelay = DEFAULT_GROUP_COMMIT_DELAY;
+    private volatile int recoveryThreads = DEFAULT_RECOVERY_THREADS;
+    private volatile LogRecovery lastRecovery = null;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -130,8 +198,28 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+        }
+        if (out == null) {
+            out = new LogBuffer(raf.getChannel(), raf.length());
+            dos = new DataOutputStream(out);
+            currentOffset = out.end();
+        }
+    }
+
+    /** @return the LSN of file offset offset */
+    private long lsn(long offset) {
+        return lsnBase + offset;
+    }
+
+    /** @return the LSN of the end of the log, including buffered records */
+    public synchronized long getEndLsn() {
+        return out == null ? lsnBase : lsn(out.end());
+    }
+
+    /** @return the LSN up to which the log has been forced to disk */
+    public long getDurableLsn() {
+        synchronized (groupLock) {
+            return durableLsn;
         }
     }
 
@@ -158,10 +246,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                dos.writeInt(ABORT_RECORD);
+                dos.writeLong(tid.getId());
+                dos.writeLong(currentOffset);
+                currentOffset = out.end();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,21 +257,167 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk, together with the commit records of
+        other transactions committing at the same time.  Must not be
+        called holding this object's lock.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            dos.writeInt(COMMIT_RECORD);
+            dos.writeLong(tid.getId());
+            dos.writeLong(currentOffset);
+            currentOffset = out.end();
+            tidToFirstLogRecord.remove(tid.getId());
+            lsn = lsn(currentOffset);
+        }
+        forceUpTo(lsn, groupCommitDelay, true);
+    }
+
+    /**
+     * Forces the log to disk at least up to LSN lsn, so that every record
+     * that ends before it is durable.  Joins the group of a force under way
+     * or about to start, if any; see the class comment.  Called holding
+     * this object's lock, forces the whole log at once.
+     *
+     * @param lsn an LSN returned by logWrite or getEndLsn
+     */
+    public void forceUpTo(long lsn) throws IOException {
+        if (Thread.holdsLock(this))
+            force();
+        else
+            forceUpTo(lsn, 0, false);
+    }
+
+    /**
+     * Waits until the log has been forced up to lsn, forcing it up to its
+     * end if no other thread is leading a group that will, after waiting
+     * delay microseconds for others to join the group.
+     *
+     * @param commit true if forcing for a commit, to count in getCommitForces
+     */
+    private void forceUpTo(long lsn, long delay, boolean commit) throws IOException {
+        synchronized (groupLock) {
+            boolean interrupted = false;
+            while (durableLsn < lsn && leading) {
+                try {
+                    groupLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (durableLsn >= lsn)
+                return;
+            leading = true;
+        }
+
+        // we lead the next group: give other commits a chance to join it,
+        // then force the log past every record appended so far
+        try {
+            if (delay > 0) {
+                long deadline = System.nanoTime() + delay * 1000;
+                synchronized (groupLock) {
+                    for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(groupLock, left);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+            }
+            long upTo;
+            FileChannel channel;
+            synchronized (this) {
+                out.flush();
+                upTo = lsn(out.end());
+                channel = raf.getChannel();
+                synchronized (groupLock) {
+                    forcing = true;
+                }
+            }
+            channel.force(true);
+            synchronized (groupLock) {
+                durableLsn = Math.max(durableLsn, upTo);
+                if (commit)
+                    commitForces++;
+            }
+        } finally {
+            synchronized (groupLock) {
+                leading = false;
+                forcing = false;
+                groupLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for a group commit's force under way to finish, so that the
+     * file it is forcing can be closed.  Called holding this object's
+     * lock, which keeps another force from starting.
+     */
+    private void awaitGroupForce() {
+        synchronized (groupLock) {
+            boolean interrupted = false;
+            while (forcing) {
+                try {
+                    groupLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets the longest time a commit that finds no force of the log under
+     * way waits for other commits to join its group before forcing the
+     * log, in microseconds; 0, the default, to force it at once.  Commits
+     * that arrive while the log is being forced are grouped anyway.
+     */
+    public void setGroupCommitDelay(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("negative group commit delay: " + micros);
+        groupCommitDelay = micros;
+    }
+
+    /**
+     * @return the number of times the log has been forced for commits;
+     *   fewer than the number of commits when commits were grouped
+     */
+    public long getCommitForces() {
+        synchronized (groupLock) {
+            return commitForces;
+        }
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Sets the number of threads recover() redoes and undoes changes on,
+     * the changes to each page all on the same one.
+     */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("recovery needs a thread: " + threads);
+        recoveryThreads = threads;
+    }
+
+    /**
+     * @return the progress and phase timings of the last, or current,
+     *   call to recover(), or null if there has been none
+     */
+    public LogRecovery getLastRecovery() {
+        return lastRecovery;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -191,14 +425,20 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the end of the record, to pass to forceUpTo
+            before the page is written
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        Debug.log("WRITE, offset = " + currentOffset);
+        // a transaction that never logged a BEGIN starts with its first
+        // update, so that rollback and recovery can find it
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         /* update record conists of
 
            record type
@@ -206,93 +446,169 @@ public class LogFile {
            before page data (see writePageData)
            after page data
            start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+           and delta record of
+
+           record type
+           transaction id
+           page id (see writePageId)
+           changed byte ranges (see PageDelta.write)
+           start offset
+        */
+        PageId pid = after.getId();
+        // serialized once, so that the image logged is the one the next
+        // delta is taken against, even if the page changes meanwhile
+        byte[] data = after.getPageData();
+        PageDelta delta = null;
+        byte[] last = loggedImages.get(pid);
+        if (last != null) {
+            // against the page as its last record left it, not the
+            // before-image: a transaction may log a page more than once,
+            // when it is written back early, and change bytes back
+            delta = PageDelta.diff(pid, last, data);
+            if (delta.size() >= 2 * data.length)
+                delta = null;
+        }
+        if (delta == null) {
+            dos.writeInt(UPDATE_RECORD);
+            dos.writeLong(tid.getId());
+            writePageData(dos,before);
+            writePageData(dos,after,data);
+        } else {
+            dos.writeInt(DELTA_RECORD);
+            dos.writeLong(tid.getId());
+            writePageId(dos, pid);
+            delta.write(dos);
+        }
+        loggedImages.put(pid, data);
+        dos.writeLong(currentOffset);
+        currentOffset = out.end();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn(currentOffset);
+    }
+
+    void writePageData(DataOutput raf, Page p) throws IOException{
+        writePageData(raf, p, p.getPageData());
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    /** Writes page p, whose data is pageData, as writePageData(raf, p). */
+    private void writePageData(DataOutput raf, Page p, byte[] pageData) throws IOException {
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
+        // page type tag (see PageCodecs)
+        // id type tag
+        // id class ints
         // id class data
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
+        // assembled in one buffer so the record goes out in a single write
+        ByteBuffer buf = ByteBuffer.allocate(2 * SHORT_SIZE + INT_SIZE
+                + INT_SIZE * pageInfo.length + INT_SIZE + pageData.length);
+        buf.putShort(PageCodecs.pageTag(p));
+        buf.putShort(PageCodecs.pageIdTag(pid));
+        buf.putInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            buf.putInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        buf.putInt(pageData.length);
+        buf.put(pageData);
+        raf.write(buf.array(), 0, buf.position());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        // page id is:
+        // id type tag (see PageCodecs)
+        // id class ints
+        // id class data
+        int idInfo[] = pid.serialize();
+        out.writeShort(PageCodecs.pageIdTag(pid));
+        out.writeInt(idInfo.length);
+        for (int i = 0; i < idInfo.length; i++)
+            out.writeInt(idInfo[i]);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    PageId readPageId(DataInput raf) throws IOException {
+        return readPageId(raf, raf.readShort());
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    /** Reads the rest of a page id whose type tag, tag, has been read. */
+    private PageId readPageId(DataInput raf, short tag) throws IOException {
+        int numIdArgs = raf.readInt();
+        int idArgs[] = new int[numIdArgs];
+        for (int i = 0; i < numIdArgs; i++)
+            idArgs[i] = raf.readInt();
+        return PageCodecs.decodePageId(tag, idArgs);
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /**
+     * Reads the body of an UPDATE or DELTA record, after its type and
+     * transaction id, as the change it logs to its page.  An UPDATE
+     * record's change covers the whole page.
+     */
+    PageDelta readChange(DataInput raf, int type) throws IOException {
+        if (type == DELTA_RECORD) {
+            PageId pid = readPageId(raf);
+            return PageDelta.read(pid, raf);
+        }
+        Page before = readPageData(raf);
+        Page after = readPageData(raf);
+        return PageDelta.image(before.getId(), before.getPageData(), after.getPageData());
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    /** @return a page of the same class as like, of the same id, holding data */
+    Page pageLike(Page like, byte[] data) throws IOException {
+        return PageCodecs.decodePage(PageCodecs.pageTag(like), like.getId(), data);
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    /**
+     * Writes the pages in data, each as the page of the same id in like
+     * with the data in data, to disk, dropping them from the buffer pool.
+     */
+    private void writePages(HashMap<PageId,Page> like, HashMap<PageId,byte[]> data)
+        throws IOException {
+        for (Map.Entry<PageId,byte[]> e : data.entrySet()) {
+            Page p = pageLike(like.get(e.getKey()), e.getValue());
+            Database.getBufferPool().discardPage(p.getId());
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        }
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    /**
+     * @return the data of page pid in data, read into it from disk (and the
+     *   page into like) if it is not there yet
+     */
+    static byte[] pageData(PageId pid, HashMap<PageId,Page> like,
+                                   HashMap<PageId,byte[]> data) {
+        byte[] d = data.get(pid);
+        if (d == null) {
+            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            like.put(pid, p);
+            d = p.getPageData();
+            data.put(pid, d);
+        }
+        return d;
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
+    /** Undoes changes, the last first, on the pages in data. */
+    static void undo(List<PageDelta> changes, HashMap<PageId,Page> like,
+                             HashMap<PageId,byte[]> data) {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            PageDelta d = changes.get(i);
+            d.undo(pageData(d.getId(), like, data));
         }
-        return newPage;
+    }
 
+    Page readPageData(DataInput raf) throws IOException {
+        short pageTag = raf.readShort();
+        PageId pid = readPageId(raf, raf.readShort());
+        int pageSize = raf.readInt();
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData);
+        return PageCodecs.decodePage(pageTag, pid, pageData);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,11 +623,11 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        dos.writeInt(BEGIN_RECORD);
+        dos.writeLong(tid.getId());
+        dos.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = out.end();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -323,33 +639,34 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = out.end();
+                dos.writeInt(CHECKPOINT_RECORD);
+                dos.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                dos.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    dos.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    dos.writeLong(tidToFirstLogRecord.get(key));
                 }
+                dos.writeLong(currentOffset);
+                currentOffset = out.end();
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                out.flush();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                // the next change to each page is logged with full images
+                loggedImages.clear();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -361,6 +678,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        out.flush();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -399,6 +717,7 @@ public class LogFile {
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
@@ -416,6 +735,13 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case DELTA_RECORD:
+                    PageId pid = readPageId(raf);
+                    PageDelta delta = PageDelta.read(pid, raf);
+
+                    writePageId(logNew, pid);
+                    delta.write(logNew);
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -426,10 +752,12 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
                 }
+                // a transaction starts with its BEGIN record, or with its
+                // first update if it logged none
+                Long first = tidToFirstLogRecord.get(record_tid);
+                if (first != null && first == oldStart)
+                    tidToFirstLogRecord.put(record_tid,newStart);
 
                 //all xactions finish with a pointer
                 logNew.writeLong(newStart);
@@ -442,14 +770,18 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        awaitGroupForce();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
         newFile.delete();
+        // what was durable must stay so in the rewritten log
+        raf.getChannel().force(true);
 
-        currentOffset = raf.getFilePointer();
+        lsnBase += minLogRecord - LONG_SIZE;
+        out.reset(raf.getChannel(), raf.length());
+        currentOffset = out.end();
         //print();
     }
 
@@ -467,10 +799,54 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no live transaction " + tid.getId());
+                // drop what tid changed in memory; this also stops any
+                // write-back of its pages under way
+                Database.getBufferPool().discardPages(tid);
+                out.flush();
+
+                // undo tid's changes, the last first, on the pages as they
+                // are on disk
+                List<PageDelta> changes = new ArrayList<PageDelta>();
+                raf.seek(first);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                    case DELTA_RECORD:
+                        PageDelta change = readChange(raf, type);
+                        if (record_tid == tid.getId())
+                            changes.add(change);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+
+                HashMap<PageId,Page> like = new HashMap<PageId,Page>();
+                HashMap<PageId,byte[]> data = new HashMap<PageId,byte[]>();
+                undo(changes, like, data);
+                writePages(like, data);
+                // the pages are no longer as tid's records left them
+                loggedImages.keySet().removeAll(data.keySet());
             }
         }
     }
 
+    /**
+     * @return true if tid has log records and has neither committed nor
+     *   aborted
+     */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -478,6 +854,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            awaitGroupForce();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -488,23 +865,128 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        History is repeated: every change in the log is redone, in log
+        order, and the changes of each aborted transaction undone where
+        its ABORT record is, as its rollback did; then the changes of the
+        transactions that neither committed nor aborted are undone, and
+        an ABORT record logged for each.  A record cut short at the end
+        of the log is dropped.
+        <p>
+        An analysis pass over the log first finds which transactions
+        committed; the changes are then redone and undone on several
+        threads (see setRecoveryThreads), partitioned by page, each page's
+        changes in log order.  See LogRecovery.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (out != null)
+                    out.flush();
+                LogRecovery recovery = new LogRecovery(this, recoveryThreads);
+                lastRecovery = recovery;
+                long end = LONG_SIZE;
+                if (raf.length() >= LONG_SIZE) {
+                    end = recovery.run(raf);
+                } else {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                raf.setLength(end);
+                if (out != null) {
+                    out.reset(raf.getChannel(), end);
+                    currentOffset = out.end();
+                }
+
+                for (Long tid : recovery.getLosers()) {
+                    preAppend();
+                    dos.writeInt(ABORT_RECORD);
+                    dos.writeLong(tid);
+                    dos.writeLong(currentOffset);
+                    currentOffset = out.end();
+                }
+                tidToFirstLogRecord.clear();
+                loggedImages.clear();
+                force();
+                recovery.done();
             }
          }
     }
 
-    /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        // some code goes here
+    /**
+     * Prints the log to System.out: the offset of the last checkpoint,
+     * then each record, one per line, with its offset, type, transaction
+     * and the page it changed.
+     */
+    public synchronized void print() throws IOException {
+        if (out != null)
+            out.flush();
+        if (raf.length() < LONG_SIZE) {
+            System.out.println("(empty log)");
+            return;
+        }
+        raf.seek(0);
+        System.out.println("checkpoint at " + raf.readLong());
+        while (true) {
+            long start = raf.getFilePointer();
+            try {
+                int type = raf.readInt();
+                long record_tid = raf.readLong();
+                String line = start + ": ";
+                switch (type) {
+                case UPDATE_RECORD:
+                    Page before = readPageData(raf);
+                    readPageData(raf);
+                    line += "UPDATE tid " + record_tid + " page " + describe(before.getId());
+                    break;
+                case DELTA_RECORD:
+                    PageDelta delta = readChange(raf, type);
+                    line += "DELTA tid " + record_tid + " page " + describe(delta.getId())
+                        + " (" + delta.size() + " bytes)";
+                    break;
+                case BEGIN_RECORD:
+                    line += "BEGIN tid " + record_tid;
+                    break;
+                case COMMIT_RECORD:
+                    line += "COMMIT tid " + record_tid;
+                    break;
+                case ABORT_RECORD:
+                    line += "ABORT tid " + record_tid;
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    line += "CHECKPOINT";
+                    for (int i = 0; i < numXactions; i++)
+                        line += " " + raf.readLong() + "@" + raf.readLong();
+                    break;
+                default:
+                    System.out.println(start + ": bad record type " + type);
+                    return;
+                }
+                raf.readLong();
+                System.out.println(line);
+            } catch (EOFException e) {
+                break;
+            }
+        }
     }
 
+    /** @return page id pid as table:page */
+    private static String describe(PageId pid) {
+        return pid.getTableId() + ":" + pid.pageNumber();
+    }
+
+    /** Force the whole log to disk. */
     public  synchronized void force() throws IOException {
+        if (out != null)
+            out.flush();
         raf.getChannel().force(true);
+        long end = getEndLsn();
+        synchronized (groupLock) {
+            durableLsn = Math.max(durableLsn, end);
+        }
     }
 
 }
@@ -0,0 +1,527 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogRecovery carries out {@link LogFile#recover}, and reports how far it
+ * has got and how long each phase took.
+ * <p>
+ * Recovery runs in three phases:
+ * <ul>
+ * <li> ANALYSIS reads the log once, skipping over page data, to find the
+ * transactions that committed, those that aborted and the losers, which
+ * did neither, and where the last complete record ends.
+ * <li> REDO_UNDO reads the log again and hands each change to one of a
+ * number of worker threads, chosen by its page, so that every change to a
+ * page goes to the same worker in log order.  Each worker repeats history
+ * on its pages, as sequential recovery would: it redoes every change,
+ * undoes the changes of an aborted transaction where its ABORT record is,
+ * and undoes the changes of losers at the end.  Only the changes of
+ * aborted transactions and losers are kept for undoing.
+ * <li> WRITE has each worker write its pages to disk; they are then
+ * dropped from the buffer pool, the log is cut after its last complete
+ * record, and an ABORT record is logged for each loser.
+ * </ul>
+ * Progress and the time each phase took are logged with {@link Debug}, and
+ * can be read from the getters, during recovery or after it.
+ *
+ * @Threadsafe
+ */
+public class LogRecovery {
+
+    /** The phases of recovery, in order. */
+    public enum Phase { ANALYSIS, REDO_UNDO, WRITE, DONE }
+
+    /** The number of changes handed to a worker at a time. */
+    static final int BATCH_SIZE = 256;
+
+    /** The number of batches that can wait for a worker. */
+    static final int QUEUE_BATCHES = 16;
+
+    /** How a transaction with records in the log ended. */
+    private enum Outcome { COMMITTED, ABORTED, LOSER }
+
+    /** The batch that tells a worker the log is over. */
+    private static final List<Op> END = new ArrayList<Op>(0);
+
+    /** A change for a worker to redo, or, if change is null, tid's ABORT. */
+    private static class Op {
+        final long tid;
+        final PageDelta change;
+
+        Op(long tid, PageDelta change) {
+            this.tid = tid;
+            this.change = change;
+        }
+    }
+
+    private final LogFile m_log;
+    private final int m_threads;
+
+    private volatile Phase m_phase = Phase.ANALYSIS;
+    private final long[] m_millis = new long[Phase.DONE.ordinal()];
+    private final AtomicLong m_applied = new AtomicLong();
+    private final AtomicLong m_pagesWritten = new AtomicLong();
+
+    // the results of analysis
+    private final Map<Long,Outcome> m_outcomes = new HashMap<Long,Outcome>();
+    private final Set<Long> m_losers = new LinkedHashSet<Long>();
+    private volatile long m_records = 0;
+    private volatile long m_changes = 0;
+    private long m_end;
+    private long m_writeStart;
+
+    /**
+     * @param log the log to recover
+     * @param threads the number of workers to redo and undo changes on
+     */
+    LogRecovery(LogFile log, int threads) {
+        m_log = log;
+        m_threads = threads;
+    }
+
+    /** @return the number of worker threads */
+    public int getThreads() {
+        return m_threads;
+    }
+
+    /** @return the phase recovery is in */
+    public Phase getPhase() {
+        return m_phase;
+    }
+
+    /**
+     * @return the time, in ms, phase p took, or 0 if it has not finished
+     */
+    public long getMillis(Phase p) {
+        synchronized (m_millis) {
+            return p == Phase.DONE ? 0 : m_millis[p.ordinal()];
+        }
+    }
+
+    /** @return the number of complete records analysis found in the log */
+    public long getRecords() {
+        return m_records;
+    }
+
+    /** @return the number of UPDATE and DELTA records among them */
+    public long getChanges() {
+        return m_changes;
+    }
+
+    /** @return the number of changes redone so far */
+    public long getChangesApplied() {
+        return m_applied.get();
+    }
+
+    /** @return the number of pages written so far */
+    public long getPagesWritten() {
+        return m_pagesWritten.get();
+    }
+
+    /**
+     * @return the ids of the transactions that neither committed nor
+     *   aborted, once analysis is done
+     */
+    public synchronized Set<Long> getLosers() {
+        return new LinkedHashSet<Long>(m_losers);
+    }
+
+    /** Records that phase p took the time since start, and moves on. */
+    private long finish(Phase p, long start) {
+        long now = System.currentTimeMillis();
+        synchronized (m_millis) {
+            m_millis[p.ordinal()] = now - start;
+        }
+        m_phase = Phase.values()[p.ordinal() + 1];
+        Debug.log("recovery: %s done in %d ms", p, now - start);
+        return now;
+    }
+
+    /**
+     * Recovers the log, which holds the buffer pool's and the log's locks
+     * and has flushed its buffer; what the workers do never takes them.
+     *
+     * @param raf the log file
+     * @return the offset in raf of the end of its last complete record
+     */
+    long run(RandomAccessFile raf) throws IOException {
+        long start = System.currentTimeMillis();
+        Debug.log("recovery: analysing %d bytes of log", raf.length());
+        analyze();
+        start = finish(Phase.ANALYSIS, start);
+        Debug.log("recovery: %d records, %d changes, %d losers, %d threads",
+                m_records, m_changes, m_losers.size(), m_threads);
+
+        Worker[] workers = new Worker[m_threads];
+        CountDownLatch redone = new CountDownLatch(m_threads);
+        for (int i = 0; i < m_threads; i++) {
+            workers[i] = new Worker(i, redone);
+            workers[i].start();
+        }
+        try {
+            dispatch(workers);
+        } finally {
+            for (Worker w : workers)
+                w.put(END);
+        }
+        awaitUninterruptibly(redone);
+        start = finish(Phase.REDO_UNDO, start);
+
+        for (Worker w : workers) {
+            w.joinUninterruptibly();
+            if (w.m_error != null)
+                throw (IOException) new IOException("recovery failed").initCause(w.m_error);
+        }
+        // drop the pages only now that they are on disk, so that no stale
+        // copy can be read back in after them
+        for (Worker w : workers) {
+            for (PageId pid : w.m_data.keySet())
+                Database.getBufferPool().discardPage(pid);
+        }
+        m_writeStart = start;
+        return m_end;
+    }
+
+    /** Ends the WRITE phase, once the log has been cut and the losers' ABORTs logged. */
+    void done() {
+        finish(Phase.WRITE, m_writeStart);
+        Debug.log("recovery: %d pages written", m_pagesWritten.get());
+    }
+
+    /** @return a stream over the records of the log, after its header */
+    private CountingInput open() throws IOException {
+        CountingInput in = new CountingInput(new FileInputStream(m_log.logFile));
+        in.skipFully(LogFile.LONG_SIZE);
+        return in;
+    }
+
+    /**
+     * Reads the log once, without decoding page data, for the outcome of
+     * each transaction and the end of the last complete record.
+     */
+    private void analyze() throws IOException {
+        CountingInput in = open();
+        DataInputStream din = new DataInputStream(in);
+        long records = 0, changes = 0;
+        m_end = LogFile.LONG_SIZE;
+        try {
+            while (true) {
+                int type = din.readInt();
+                Long tid = din.readLong();
+                switch (type) {
+                case LogFile.UPDATE_RECORD:
+                    skipPageData(in, din);
+                    skipPageData(in, din);
+                    changes++;
+                    live(tid);
+                    break;
+                case LogFile.DELTA_RECORD:
+                    skipPageId(in, din);
+                    int ranges = din.readInt();
+                    for (int r = 0; r < ranges; r++) {
+                        din.readInt();
+                        in.skipFully(2L * din.readInt());
+                    }
+                    changes++;
+                    live(tid);
+                    break;
+                case LogFile.BEGIN_RECORD:
+                    live(tid);
+                    break;
+                case LogFile.COMMIT_RECORD:
+                    m_outcomes.put(tid, Outcome.COMMITTED);
+                    break;
+                case LogFile.ABORT_RECORD:
+                    m_outcomes.put(tid, Outcome.ABORTED);
+                    break;
+                case LogFile.CHECKPOINT_RECORD:
+                    in.skipFully(din.readInt() * 2L * LogFile.LONG_SIZE);
+                    break;
+                default:
+                    throw new IOException("bad log record type " + type);
+                }
+                din.readLong();
+                m_end = in.position();
+                records++;
+                m_records = records;
+                m_changes = changes;
+            }
+        } catch (EOFException e) {
+            // the log ends here, or with a record cut short
+        } finally {
+            in.close();
+        }
+        synchronized (this) {
+            for (Map.Entry<Long,Outcome> e : m_outcomes.entrySet()) {
+                if (e.getValue() == Outcome.LOSER)
+                    m_losers.add(e.getKey());
+            }
+        }
+    }
+
+    /** Notes that tid has a record, if it has not committed or aborted yet. */
+    private void live(Long tid) {
+        if (!m_outcomes.containsKey(tid))
+            m_outcomes.put(tid, Outcome.LOSER);
+    }
+
+    /**
+     * @return how tid ended
+     * @throws IllegalStateException if analysis found no record of tid,
+     *   which it does for every transaction whose changes are redone
+     */
+    private Outcome outcome(long tid) {
+        Outcome outcome = m_outcomes.get(tid);
+        if (outcome == null)
+            throw new IllegalStateException("no outcome for transaction " + tid);
+        return outcome;
+    }
+
+    private static void skipPageId(CountingInput in, DataInputStream din) throws IOException {
+        din.readShort();
+        in.skipFully(LogFile.INT_SIZE * (long) din.readInt());
+    }
+
+    private static void skipPageData(CountingInput in, DataInputStream din) throws IOException {
+        din.readShort();
+        skipPageId(in, din);
+        in.skipFully(din.readInt());
+    }
+
+    /**
+     * Reads the complete records of the log again, handing each change to
+     * the worker of its page and each ABORT to every worker.
+     */
+    private void dispatch(Worker[] workers) throws IOException {
+        List<List<Op>> batches = new ArrayList<List<Op>>(m_threads);
+        for (int i = 0; i < m_threads; i++)
+            batches.add(new ArrayList<Op>(BATCH_SIZE));
+        CountingInput in = open();
+        DataInputStream din = new DataInputStream(in);
+        long changes = 0, step = Math.max(1, m_changes / 10);
+        try {
+            while (in.position() < m_end) {
+                int type = din.readInt();
+                long tid = din.readLong();
+                switch (type) {
+                case LogFile.UPDATE_RECORD:
+                case LogFile.DELTA_RECORD:
+                    PageDelta change = m_log.readChange(din, type);
+                    int w = partition(change.getId());
+                    add(workers[w], batches.get(w), new Op(tid, change));
+                    if (++changes % step == 0)
+                        Debug.log("recovery: redo/undo read %d of %d changes", changes, m_changes);
+                    break;
+                case LogFile.ABORT_RECORD:
+                    for (int i = 0; i < m_threads; i++)
+                        add(workers[i], batches.get(i), new Op(tid, null));
+                    break;
+                case LogFile.CHECKPOINT_RECORD:
+                    in.skipFully(din.readInt() * 2L * LogFile.LONG_SIZE);
+                    break;
+                }
+                din.readLong();
+            }
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < m_threads; i++) {
+            if (!batches.get(i).isEmpty())
+                workers[i].put(batches.get(i));
+        }
+    }
+
+    private void add(Worker w, List<Op> batch, Op op) throws IOException {
+        batch.add(op);
+        if (batch.size() == BATCH_SIZE) {
+            w.put(new ArrayList<Op>(batch));
+            batch.clear();
+        }
+    }
+
+    /** @return the worker that recovers page pid */
+    private int partition(PageId pid) {
+        int h = PageTable.hash(PageTable.key(pid));
+        return (int) (((h & 0xffffffffL) * m_threads) >>> 32);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /** Redoes and undoes the changes to the pages of one partition. */
+    private class Worker extends Thread {
+        private final BlockingQueue<List<Op>> m_queue =
+            new ArrayBlockingQueue<List<Op>>(QUEUE_BATCHES);
+        private final CountDownLatch m_redone;
+        private final HashMap<PageId,Page> m_like = new HashMap<PageId,Page>();
+        final HashMap<PageId,byte[]> m_data = new HashMap<PageId,byte[]>();
+        // the changes of aborted transactions and losers, in log order
+        private final HashMap<Long,List<PageDelta>> m_undoable = new HashMap<Long,List<PageDelta>>();
+        volatile Throwable m_error = null;
+
+        Worker(int i, CountDownLatch redone) {
+            super("simpledb-recovery-" + i);
+            setDaemon(true);
+            m_redone = redone;
+        }
+
+        void put(List<Op> batch) throws IOException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    m_queue.put(batch);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        void joinUninterruptibly() {
+            boolean interrupted = false;
+            while (isAlive()) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        public void run() {
+            try {
+                redoUndo();
+            } catch (Throwable t) {
+                m_error = t;
+                // keep taking batches, so that the reader does not block
+                try {
+                    while (m_queue.take() != END)
+                        ;
+                } catch (InterruptedException e) {
+                    // give up
+                }
+            } finally {
+                m_redone.countDown();
+            }
+            if (m_error != null)
+                return;
+            try {
+                for (Map.Entry<PageId,byte[]> e : m_data.entrySet()) {
+                    Page p = m_log.pageLike(m_like.get(e.getKey()), e.getValue());
+                    Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+                    m_pagesWritten.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                m_error = t;
+            }
+        }
+
+        private void redoUndo() throws InterruptedException {
+            while (true) {
+                List<Op> batch = m_queue.take();
+                if (batch == END)
+                    break;
+                int applied = 0;
+                for (Op op : batch) {
+                    if (op.change == null) {
+                        List<PageDelta> changes = m_undoable.remove(op.tid);
+                        if (changes != null)
+                            LogFile.undo(changes, m_like, m_data);
+                        continue;
+                    }
+                    op.change.redo(LogFile.pageData(op.change.getId(), m_like, m_data));
+                    applied++;
+                    if (outcome(op.tid) != Outcome.COMMITTED) {
+                        List<PageDelta> changes = m_undoable.get(op.tid);
+                        if (changes == null) {
+                            changes = new ArrayList<PageDelta>();
+                            m_undoable.put(op.tid, changes);
+                        }
+                        changes.add(op.change);
+                    }
+                }
+                m_applied.addAndGet(applied);
+            }
+            // the losers touched disjoint pages, so need not be undone in
+            // any particular order among themselves
+            for (List<PageDelta> changes : m_undoable.values())
+                LogFile.undo(changes, m_like, m_data);
+        }
+    }
+
+    /** An input stream that counts the bytes read from it. */
+    private static class CountingInput extends FilterInputStream {
+        private long m_position = 0;
+
+        CountingInput(InputStream in) {
+            super(new BufferedInputStream(in, 1 << 16));
+        }
+
+        long position() {
+            return m_position;
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                m_position++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                m_position += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            m_position += skipped;
+            return skipped;
+        }
+
+        /** Skips n bytes, or throws EOFException if there are fewer. */
+        void skipFully(long n) throws IOException {
+            while (n > 0) {
+                long skipped = skip(n);
+                if (skipped <= 0) {
+                    if (read() < 0)
+                        throw new EOFException();
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -271,6 +273,50 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Returns the indexes of the fields of the table scanned as alias that
+     *   this plan refers to anywhere (select list, filters, joins, grouping,
+     *   ordering), so the scan of a column-oriented table can skip the rest.
+     *  @return the field indexes, or null if the plan may use every field
+     *   (e.g. for SELECT *)
+     */
+    private Set<Integer> referencedFields(String alias, TupleDesc td) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalFilterNode lf : filters)
+            if (lf.tableAlias.equals(alias))
+                names.add(lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            if (alias.equals(lj.t1Alias))
+                names.add(lj.f1PureName);
+            if (alias.equals(lj.t2Alias))
+                names.add(lj.f2PureName);
+        }
+        ArrayList<String> qualified = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            qualified.add(si.fname);
+        qualified.add(aggField);
+        qualified.add(groupByField);
+        qualified.add(oByField);
+        for (String q : qualified) {
+            if (q == null)
+                continue;
+            if (q.equals("*") || q.endsWith(".*"))
+                return null;
+            int dot = q.indexOf('.');
+            if (q.substring(0, dot).equals(alias))
+                names.add(q.substring(dot + 1));
+        }
+
+        HashSet<Integer> fields = new HashSet<Integer>();
+        for (String n : names) {
+            try {
+                fields.add(td.fieldNameToIndex(n));
+            } catch (NoSuchElementException e) {
+                return null; // reported as a ParsingException below
+            }
+        }
+        return fields;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -294,7 +340,9 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                 ss = new SeqScan(t, f.getId(), table.alias,
+                                  referencedFields(table.alias, f.getTupleDesc()));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
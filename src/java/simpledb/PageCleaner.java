@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is the background thread that writes a BufferPool's dirty
+ * pages back to disk, so that a transaction needing a frame seldom finds
+ * only dirty pages to evict and has to write them back itself.  Every
+ * {@link #INTERVAL} ms, or sooner when woken, it has the pool write back
+ * dirty pages, in file order, until the pool's clean target fraction of
+ * its frames is free or clean (see {@link BufferPool#clean}).
+ * <p>
+ * The pool starts its cleaner when a transaction asks for a page to write;
+ * the cleaner exits once it has found no dirty page for
+ * {@link #IDLE_ROUNDS} rounds in a row, or when the pool is stopped.
+ */
+class PageCleaner extends Thread {
+
+    /** The time, in ms, between rounds of cleaning. */
+    public static final long INTERVAL = 20;
+
+    /** The number of rounds without dirty pages after which the cleaner exits. */
+    public static final int IDLE_ROUNDS = 50;
+
+    private final BufferPool m_pool;
+    private boolean m_woken = false; // protected by this
+    private volatile boolean m_stopped = false;
+
+    PageCleaner(BufferPool pool) {
+        super("PageCleaner");
+        setDaemon(true);
+        m_pool = pool;
+    }
+
+    /** Starts a round of cleaning now, if none is under way. */
+    synchronized void wake() {
+        m_woken = true;
+        notify();
+    }
+
+    /** Makes the cleaner exit after the round under way, if any. */
+    void shutdown() {
+        m_stopped = true;
+        wake();
+    }
+
+    public void run() {
+        int idle = 0;
+        try {
+            while (!m_stopped) {
+                synchronized (this) {
+                    if (!m_woken)
+                        wait(INTERVAL);
+                    m_woken = false;
+                }
+                if (m_stopped)
+                    break;
+                if (m_pool.clean() > 0)
+                    idle = 0;
+                else if (++idle >= IDLE_ROUNDS)
+                    break;
+            }
+        } catch (InterruptedException e) {
+            // exit
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            m_pool.cleanerExited(this);
+        }
+    }
+}
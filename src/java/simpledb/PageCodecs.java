@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageCodecs is the registry of the page and page id types that can be
+ * written to the log, each under a small integer type tag.  A log record
+ * stores a page's type tag, rather than its class name, and the {@link
+ * LogFile} builds the page back with the codec registered for the tag,
+ * rather than by reflection.
+ * <p>
+ * HeapPageId, and the HeapPage, SlottedPage and ColumnPage pages of heap
+ * and column files, are registered by default; other page types must be
+ * registered, under tags of their own, before pages of theirs are logged
+ * or the log is recovered.  Tags are part of the log format, so a type
+ * must keep its tag from one run to the next.
+ *
+ * @Threadsafe
+ */
+public class PageCodecs {
+
+    /** Builds a page from its id and data, as read back from the log. */
+    public interface PageCodec {
+        Page decode(PageId pid, byte[] data) throws IOException;
+    }
+
+    /** Builds a page id from the ints its serialize() method returned. */
+    public interface PageIdCodec {
+        PageId decode(int[] data);
+    }
+
+    /** The tag of HeapPageId. */
+    public static final short HEAP_PAGE_ID = 1;
+    /** The tag of HeapPage. */
+    public static final short HEAP_PAGE = 1;
+    /** The tag of SlottedPage. */
+    public static final short SLOTTED_PAGE = 2;
+    /** The tag of ColumnPage. */
+    public static final short COLUMN_PAGE = 3;
+
+    private static final ConcurrentHashMap<Class<?>,Short> m_pageTags =
+        new ConcurrentHashMap<Class<?>,Short>();
+    private static final ConcurrentHashMap<Short,PageCodec> m_pageCodecs =
+        new ConcurrentHashMap<Short,PageCodec>();
+    private static final ConcurrentHashMap<Class<?>,Short> m_idTags =
+        new ConcurrentHashMap<Class<?>,Short>();
+    private static final ConcurrentHashMap<Short,PageIdCodec> m_idCodecs =
+        new ConcurrentHashMap<Short,PageIdCodec>();
+
+    static {
+        registerPageId(HEAP_PAGE_ID, HeapPageId.class, new PageIdCodec() {
+            public PageId decode(int[] data) {
+                return new HeapPageId(data[0], data[1]);
+            }
+        });
+        registerPage(HEAP_PAGE, HeapPage.class, new PageCodec() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new HeapPage((HeapPageId) pid, data);
+            }
+        });
+        registerPage(SLOTTED_PAGE, SlottedPage.class, new PageCodec() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new SlottedPage((HeapPageId) pid, data);
+            }
+        });
+        registerPage(COLUMN_PAGE, ColumnPage.class, new PageCodec() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new ColumnPage((HeapPageId) pid, data);
+            }
+        });
+    }
+
+    /**
+     * Registers the codec of pages of class pageClass under tag.
+     *
+     * @throws IllegalArgumentException if tag or pageClass is registered
+     *   already
+     */
+    public static synchronized void registerPage(short tag, Class<? extends Page> pageClass,
+                                                 PageCodec codec) {
+        if (m_pageCodecs.containsKey(tag) || m_pageTags.containsKey(pageClass))
+            throw new IllegalArgumentException("page tag " + tag + " or " + pageClass.getName()
+                    + " already registered");
+        m_pageCodecs.put(tag, codec);
+        m_pageTags.put(pageClass, tag);
+    }
+
+    /**
+     * Registers the codec of page ids of class idClass under tag.
+     *
+     * @throws IllegalArgumentException if tag or idClass is registered
+     *   already
+     */
+    public static synchronized void registerPageId(short tag, Class<? extends PageId> idClass,
+                                                   PageIdCodec codec) {
+        if (m_idCodecs.containsKey(tag) || m_idTags.containsKey(idClass))
+            throw new IllegalArgumentException("page id tag " + tag + " or " + idClass.getName()
+                    + " already registered");
+        m_idCodecs.put(tag, codec);
+        m_idTags.put(idClass, tag);
+    }
+
+    /**
+     * @return the tag of the class of page p
+     * @throws IOException if it has none, so p cannot be logged
+     */
+    static short pageTag(Page p) throws IOException {
+        Short tag = m_pageTags.get(p.getClass());
+        if (tag == null)
+            throw new IOException("no codec registered for " + p.getClass().getName());
+        return tag;
+    }
+
+    /**
+     * @return the tag of the class of page id pid
+     * @throws IOException if it has none, so pid cannot be logged
+     */
+    static short pageIdTag(PageId pid) throws IOException {
+        Short tag = m_idTags.get(pid.getClass());
+        if (tag == null)
+            throw new IOException("no codec registered for " + pid.getClass().getName());
+        return tag;
+    }
+
+    /**
+     * @return the page with tag tag, id pid and data data
+     * @throws IOException if no codec is registered under tag
+     */
+    static Page decodePage(short tag, PageId pid, byte[] data) throws IOException {
+        PageCodec codec = m_pageCodecs.get(tag);
+        if (codec == null)
+            throw new IOException("no page codec registered under tag " + tag);
+        return codec.decode(pid, data);
+    }
+
+    /**
+     * @return the page id with tag tag serialized as data
+     * @throws IOException if no codec is registered under tag
+     */
+    static PageId decodePageId(short tag, int[] data) throws IOException {
+        PageIdCodec codec = m_idCodecs.get(tag);
+        if (codec == null)
+            throw new IOException("no page id codec registered under tag " + tag);
+        return codec.decode(data);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageDelta is the change a transaction made to a page, as the byte ranges
+ * of the page's data that differ between its before- and after-images,
+ * with their contents in both.  For a HeapPage, these are the header bytes
+ * whose slot bits flipped and the bytes of the tuples inserted or deleted.
+ * A delta can be redone, setting its ranges to their after-contents, or
+ * undone, setting them to their before-contents, and doing either twice is
+ * the same as doing it once.  It holds only the bytes that differ, so it
+ * is relative to its before-image: redone on the page holding that image
+ * it gives the after-image, and undone on the page holding the
+ * after-image it gives the before-image, but on the page in any other
+ * state it leaves the bytes outside its ranges as they were.
+ * <p>
+ * {@link LogFile} logs deltas in place of full page images except for the
+ * first change to each page after a checkpoint, taking each against the
+ * after-image of the page's previous record, which is then its
+ * before-image.
+ */
+class PageDelta {
+
+    /**
+     * Runs of differing bytes closer than this are logged as one range,
+     * since each range costs two ints.
+     */
+    static final int MERGE_GAP = 4;
+
+    private final PageId m_pid;
+    private final int[] m_offsets;
+    private final byte[][] m_before;
+    private final byte[][] m_after;
+
+    private PageDelta(PageId pid, int[] offsets, byte[][] before, byte[][] after) {
+        m_pid = pid;
+        m_offsets = offsets;
+        m_before = before;
+        m_after = after;
+    }
+
+    /**
+     * @return the delta that turns the data before of page pid into the
+     *   data after, of the same length
+     */
+    static PageDelta diff(PageId pid, byte[] before, byte[] after) {
+        List<int[]> ranges = new ArrayList<int[]>();
+        int i = 0, n = before.length;
+        while (i < n) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            int start = i, end = i + 1;
+            // extend the range over differences fewer than MERGE_GAP bytes apart
+            for (int j = end; j < n && j < end + MERGE_GAP; j++) {
+                if (before[j] != after[j])
+                    end = j + 1;
+            }
+            ranges.add(new int[] { start, end });
+            i = end;
+        }
+        int[] offsets = new int[ranges.size()];
+        byte[][] b = new byte[ranges.size()][];
+        byte[][] a = new byte[ranges.size()][];
+        for (int r = 0; r < offsets.length; r++) {
+            int start = ranges.get(r)[0], len = ranges.get(r)[1] - start;
+            offsets[r] = start;
+            b[r] = new byte[len];
+            a[r] = new byte[len];
+            System.arraycopy(before, start, b[r], 0, len);
+            System.arraycopy(after, start, a[r], 0, len);
+        }
+        return new PageDelta(pid, offsets, b, a);
+    }
+
+    /**
+     * @return the delta that replaces all of the data before of page pid
+     *   with the data after, as a full-image log record does
+     */
+    static PageDelta image(PageId pid, byte[] before, byte[] after) {
+        return new PageDelta(pid, new int[] { 0 }, new byte[][] { before }, new byte[][] { after });
+    }
+
+    /** @return the page this delta changes */
+    PageId getId() {
+        return m_pid;
+    }
+
+    /** @return the number of bytes {@link #write} writes */
+    int size() {
+        int size = LogFile.INT_SIZE;
+        for (byte[] b : m_before)
+            size += 2 * LogFile.INT_SIZE + 2 * b.length;
+        return size;
+    }
+
+    /** Sets the ranges of data to their contents after the change. */
+    void redo(byte[] data) {
+        for (int r = 0; r < m_offsets.length; r++)
+            System.arraycopy(m_after[r], 0, data, m_offsets[r], m_after[r].length);
+    }
+
+    /** Sets the ranges of data to their contents before the change. */
+    void undo(byte[] data) {
+        for (int r = 0; r < m_offsets.length; r++)
+            System.arraycopy(m_before[r], 0, data, m_offsets[r], m_before[r].length);
+    }
+
+    /** Writes the ranges, but not the page id, to out. */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(m_offsets.length);
+        for (int r = 0; r < m_offsets.length; r++) {
+            out.writeInt(m_offsets[r]);
+            out.writeInt(m_before[r].length);
+            out.write(m_before[r]);
+            out.write(m_after[r]);
+        }
+    }
+
+    /** Reads the ranges of a delta of page pid written by {@link #write}. */
+    static PageDelta read(PageId pid, DataInput in) throws IOException {
+        int n = in.readInt();
+        int[] offsets = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int r = 0; r < n; r++) {
+            offsets[r] = in.readInt();
+            int len = in.readInt();
+            before[r] = new byte[len];
+            after[r] = new byte[len];
+            in.readFully(before[r]);
+            in.readFully(after[r]);
+        }
+        return new PageDelta(pid, offsets, before, after);
+    }
+}
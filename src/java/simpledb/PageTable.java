@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PageTable maps the pages resident in a {@link BufferPartition} to their
+ * frames.  It is an open-addressing (linear probing) hash table keyed on a
+ * page's table id and page number packed into a long (see {@link #key}),
+ * so looking a page up allocates nothing.
+ * <p>
+ * The table never holds more than the number of entries it was created
+ * for, and has at least twice as many slots, so it never grows.  Writers
+ * ({@link #put}, {@link #remove}) must be serialized by the caller; readers
+ * ({@link #get}) take no lock and may run concurrently with a writer, in
+ * which case they may miss an entry that is being moved, or return the
+ * frame of another page.  Callers check the page in the frame they get,
+ * and fall back to a lookup under the writers' lock if it is not theirs.
+ */
+class PageTable {
+
+    private static final int EMPTY = -1;
+
+    private final AtomicLongArray m_keys;
+    // frame of the page in each slot, or EMPTY; written after the key, so a
+    // reader that sees a frame also sees the key it was stored with
+    private final AtomicIntegerArray m_frames;
+    private final int m_mask;
+    private int m_size = 0; // protected by the caller's lock
+
+    /**
+     * @param maxEntries the most entries the table will hold at once
+     */
+    PageTable(int maxEntries) {
+        int slots = Integer.highestOneBit(Math.max(1, maxEntries)) << 2;
+        m_keys = new AtomicLongArray(slots);
+        m_frames = new AtomicIntegerArray(slots);
+        for (int i = 0; i < slots; i++)
+            m_frames.set(i, EMPTY);
+        m_mask = slots - 1;
+    }
+
+    /**
+     * @return the key of page pid: its table id in the high 32 bits and its
+     *   page number in the low 32 bits
+     */
+    static long key(PageId pid) {
+        return ((long) pid.getTableId() << 32) | (pid.pageNumber() & 0xffffffffL);
+    }
+
+    /**
+     * @return a well mixed hash of key; BufferPool picks partitions with
+     *   its high bits, and PageTable picks slots with its low bits
+     */
+    static int hash(long key) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> 32);
+    }
+
+    int size() {
+        return m_size;
+    }
+
+    /**
+     * @return the frame stored for key, or -1 if there is none
+     */
+    int get(long key) {
+        int i = hash(key) & m_mask;
+        // bounded, since concurrent moves could otherwise keep us probing
+        for (int n = 0; n <= m_mask; n++, i = (i + 1) & m_mask) {
+            int frame = m_frames.get(i);
+            if (frame == EMPTY)
+                return -1;
+            if (m_keys.get(i) == key)
+                return frame;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores frame for key, replacing the frame stored for it if any.
+     */
+    void put(long key, int frame) {
+        int i = hash(key) & m_mask;
+        while (m_frames.get(i) != EMPTY) {
+            if (m_keys.get(i) == key) {
+                m_frames.set(i, frame);
+                return;
+            }
+            i = (i + 1) & m_mask;
+        }
+        m_keys.set(i, key);
+        m_frames.set(i, frame);
+        m_size++;
+    }
+
+    /**
+     * Removes the entry for key, if there is one.  Entries after it in its
+     * probe sequence are moved back, so the table needs no tombstones.
+     */
+    void remove(long key) {
+        int i = hash(key) & m_mask;
+        for (;;) {
+            if (m_frames.get(i) == EMPTY)
+                return;
+            if (m_keys.get(i) == key)
+                break;
+            i = (i + 1) & m_mask;
+        }
+        m_size--;
+        for (int j = (i + 1) & m_mask; ; j = (j + 1) & m_mask) {
+            int frame = m_frames.get(j);
+            if (frame == EMPTY)
+                break;
+            long k = m_keys.get(j);
+            int home = hash(k) & m_mask;
+            // the entry at j may fill the hole at i unless its home slot
+            // lies cyclically in (i, j]
+            boolean stays = i < j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!stays) {
+                m_keys.set(i, k);
+                m_frames.set(i, frame);
+                i = j;
+            }
+        }
+        m_frames.set(i, EMPTY);
+    }
+}
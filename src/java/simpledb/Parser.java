@@ -600,6 +600,11 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
     protected void shutdown() {
+        try {
+            Database.getBufferPool().saveHotPages(new File(WarmStart.FILE_NAME));
+        } catch (IOException e) {
+            System.out.println("Unable to save the buffer pool's pages: " + e.getMessage());
+        }
         System.out.println("Bye");
     }
 
@@ -609,6 +614,14 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        File hotPages = new File(WarmStart.FILE_NAME);
+        if (hotPages.exists()) {
+            try {
+                Database.getBufferPool().warmStart(hotPages);
+            } catch (IOException e) {
+                System.out.println("Unable to warm the buffer pool: " + e.getMessage());
+            }
+        }
 
         String queryFile = null;
 
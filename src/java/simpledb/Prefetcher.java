@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prefetcher issues asynchronous reads for the pages a sequential scan is
+ * about to visit, so that they are already in the BufferPool by the time
+ * the scan asks for them.
+ * <p>
+ * A scan calls {@link #advance} before fetching each page; that keeps up to
+ * <tt>window</tt> pages ahead of the scan queued on a shared background I/O
+ * executor, and records whether the requested page was ready (a hit) or not
+ * (a miss) in the HeapFile's prefetch counters.  {@link #close} cancels any
+ * reads that have not started yet.  Pages the scan will skip because of its
+ * pushed-down predicates are not read ahead.  A scan reading through a
+ * {@link ScanRing} has its pages read ahead into the ring instead.
+ *
+ * @see HeapFile#setPrefetchWindow
+ */
+public class Prefetcher {
+
+    /** Number of background threads issuing prefetch reads. */
+    public static final int IO_THREADS =
+        Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService m_executor =
+        Executors.newFixedThreadPool(IO_THREADS, new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-prefetch-" + m_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final HeapFile m_hf;
+    private final int m_numPages;
+    private final int m_window;
+    private final ZoneMap m_zones;
+    private final List<Predicate> m_preds;
+    private final ScanRing m_ring;
+    private final Map<Integer, Future<?>> m_pending = new HashMap<Integer, Future<?>>();
+    private int m_nextToIssue;
+    private volatile boolean m_closed = false;
+
+    /**
+     * @param hf the file being scanned
+     * @param firstPage the first page the scan will request
+     * @param numPages the number of pages the scan will visit
+     * @param window how many pages to keep in flight ahead of the scan
+     */
+    public Prefetcher(HeapFile hf, int firstPage, int numPages, int window) {
+        this(hf, firstPage, numPages, window, null, null, null);
+    }
+
+    /**
+     * @param zones the zone map of hf, or null if the scan reads every page
+     * @param preds the predicates the scan skips pages with
+     */
+    public Prefetcher(HeapFile hf, int firstPage, int numPages, int window,
+                      ZoneMap zones, List<Predicate> preds) {
+        this(hf, firstPage, numPages, window, zones, preds, null);
+    }
+
+    /**
+     * @param ring the ring the scan reads through, with more frames than
+     *   window, or null if it reads through the BufferPool
+     */
+    public Prefetcher(HeapFile hf, int firstPage, int numPages, int window,
+                      ZoneMap zones, List<Predicate> preds, ScanRing ring) {
+        m_hf = hf;
+        m_ring = ring;
+        m_numPages = numPages;
+        m_window = window;
+        m_zones = zones;
+        m_preds = preds;
+        m_nextToIssue = firstPage + 1;
+    }
+
+    /**
+     * Tell the prefetcher that the scan is about to fetch page pgNo.  Waits
+     * for an in-flight read of that page to complete, so the scan never
+     * reads the same page twice, and issues reads for the pages after it.
+     */
+    public void advance(int pgNo) {
+        if (m_closed)
+            return;
+        Future<?> f = m_pending.remove(pgNo);
+        if (f != null && f.isDone()) {
+            m_hf.recordPrefetch(true);
+        } else {
+            m_hf.recordPrefetch(false);
+            if (f != null) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // prefetching is advisory; the scan reads the page itself
+                }
+            }
+        }
+
+        if (m_nextToIssue <= pgNo)
+            m_nextToIssue = pgNo + 1;
+        int last = Math.min(m_numPages - 1, pgNo + m_window);
+        for (; m_nextToIssue <= last; m_nextToIssue++) {
+            if (m_zones != null && !m_zones.mayMatch(m_nextToIssue, m_preds))
+                continue;
+            final PageId pid = new HeapPageId(m_hf.getId(), m_nextToIssue);
+            m_pending.put(m_nextToIssue, m_executor.submit(new Runnable() {
+                public void run() {
+                    if (m_closed)
+                        return;
+                    try {
+                        if (m_ring != null)
+                            Database.getBufferPool().prefetchPage(pid, m_ring);
+                        else
+                            Database.getBufferPool().prefetchPage(pid);
+                    } catch (DbException e) {
+                        // no room in the pool; the scan will fetch it later
+                    }
+                }
+            }));
+        }
+    }
+
+    /** Stop prefetching and cancel any reads that have not started yet. */
+    public void close() {
+        m_closed = true;
+        Iterator<Future<?>> it = m_pending.values().iterator();
+        while (it.hasNext()) {
+            it.next().cancel(false);
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * a free frame.  The BufferPool keeps its pages in a fixed array of frames
+ * and tells the policy about them by frame number.
+ * <p>
+ * Each {@link BufferPartition} of the BufferPool has a policy of its own.
+ * {@link #touch} is called on every cache hit with no lock held, by many
+ * threads at once, and may run concurrently with any other method; it must
+ * be cheap and must not block.  All other methods are called with the
+ * partition's latch held, so never concurrently with each other.
+ *
+ * @see ClockPolicy
+ * @see TwoQPolicy
+ * @see ArcPolicy
+ */
+public interface ReplacementPolicy {
+
+    /** The policies a BufferPool can be constructed with. */
+    public enum Kind {
+        /** CLOCK (second chance); see {@link ClockPolicy}.  The default. */
+        CLOCK,
+        /** 2Q, which resists scans; see {@link TwoQPolicy}. */
+        TWO_Q,
+        /** ARC, which resists scans and adapts; see {@link ArcPolicy}. */
+        ARC;
+
+        /** @return a new policy of this kind for numFrames frames */
+        public ReplacementPolicy create(int numFrames) {
+            switch (this) {
+            case TWO_Q:
+                return new TwoQPolicy(numFrames);
+            case ARC:
+                return new ArcPolicy(numFrames);
+            default:
+                return new ClockPolicy(numFrames);
+            }
+        }
+    }
+
+    /** Tells a policy which frames may be evicted. */
+    public interface Evictable {
+        /** @return true if the page in frame may be evicted now */
+        public boolean canEvict(int frame);
+    }
+
+    /**
+     * Page pid has been loaded into frame, which was free.  Loading it
+     * counts as its first reference; only later hits are touches, so that a
+     * policy can tell pages used once from pages used again.
+     */
+    public void admit(int frame, PageId pid);
+
+    /**
+     * Page pid has been read ahead of its first use into frame, which was
+     * free.  Like {@link #admit}, except that loading it is not a
+     * reference: its first touch is that use, and only later ones are
+     * references again.
+     */
+    public void admitPrefetched(int frame, PageId pid);
+
+    /**
+     * The page in frame has been referenced.
+     */
+    public void touch(int frame);
+
+    /**
+     * Chooses a page to evict.  The policy stops tracking it: the frame
+     * becomes free.
+     *
+     * @param evictable which frames may be evicted
+     * @return the frame of the page to evict, or -1 if no page may be
+     */
+    public int victim(Evictable evictable);
+
+    /**
+     * The page in frame has been removed from the BufferPool other than by
+     * {@link #victim}; the frame is free.
+     */
+    public void remove(int frame);
+
+    /**
+     * Ranks the frames holding pages by how long the policy would keep
+     * them, without changing anything.
+     *
+     * @return the frames holding pages, the one that would be evicted last
+     *   first and the one that would be evicted next last
+     */
+    public int[] hottestFirst();
+}
@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * ScanRing is a small ring of private frames through which a sequential
+ * scan of a large table reads the pages that are not already in the
+ * BufferPool, so that the scan does not push the pool's useful pages out:
+ * each page read goes into the ring's oldest frame instead of the shared
+ * cache.  See {@link BufferPool#scanRing} and {@link
+ * BufferPool#getPage(TransactionId, PageId, ScanRing)}.
+ * <p>
+ * Pages in the ring are clean copies of pages on disk, each tagged with
+ * the write epoch of its BufferPool partition when it was read; a copy is
+ * only used while no page of its partition has been written back or
+ * discarded since, so it is never older than the disk.  A {@link
+ * Prefetcher} may read ahead into the ring, as long as it keeps fewer pages
+ * in flight than the ring has frames.
+ *
+ * @Threadsafe
+ */
+public class ScanRing {
+    private final Page[] m_pages;   // protected by this
+    private final long[] m_epochs;  // protected by this
+    private int m_next = 0;         // the oldest frame; protected by this
+
+    /**
+     * @param numFrames the number of frames in the ring
+     */
+    ScanRing(int numFrames) {
+        m_pages = new Page[numFrames];
+        m_epochs = new long[numFrames];
+    }
+
+    /** @return the number of frames in the ring */
+    public int numFrames() {
+        return m_pages.length;
+    }
+
+    /**
+     * Puts p, read from disk at write epoch epoch of its partition, into
+     * the ring's oldest frame.
+     */
+    synchronized void put(Page p, long epoch) {
+        m_pages[m_next] = p;
+        m_epochs[m_next] = epoch;
+        m_next = (m_next + 1) % m_pages.length;
+    }
+
+    /**
+     * @return the copy of page pid in the ring, if it was read at write
+     *   epoch epoch of its partition, or null
+     */
+    synchronized Page get(PageId pid, long epoch) {
+        for (int i = 0; i < m_pages.length; i++) {
+            Page p = m_pages[i];
+            if (p != null && m_epochs[i] == epoch && p.getId().equals(pid))
+                return p;
+        }
+        return null;
+    }
+}
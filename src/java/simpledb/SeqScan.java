@@ -32,14 +32,36 @@ public class SeqScan implements DbIterator {
     private String m_tableAlias;
     private DbFileIterator m_iter;
     private DbFile m_f;
+    private Set<Integer> m_fields;
 
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only needs the specified fields of the
+     * table.  Tables stored in a {@link ColumnFile} then only read the pages
+     * of those columns, and the other fields of the returned tuples are
+     * null; other tables return whole tuples.
+     *
+     * @param fields
+     *            the indexes of the fields the scan's consumers use, or null
+     *            if they may use all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Set<Integer> fields) {
         // some code goes here
         m_tid = tid;
         m_tableid = tableid;
         m_tableAlias = tableAlias;
+        m_fields = fields;
         m_f = Database.getCatalog().getDatabaseFile(m_tableid);
-        m_iter = m_f.iterator(m_tid);
+        m_iter = fileIterator();
+    }
+
+    private DbFileIterator fileIterator() {
+        if (m_fields != null && m_f instanceof ColumnFile)
+            return ((ColumnFile) m_f).iterator(m_tid, m_fields);
+        return m_f.iterator(m_tid);
     }
 
     /**
@@ -76,8 +98,9 @@ public class SeqScan implements DbIterator {
         // some code goes here
         m_tableid = tableid;
         m_tableAlias = tableAlias;
+        m_fields = null;
         m_f = Database.getCatalog().getDatabaseFile(tableid);
-        m_iter = m_f.iterator(m_tid);
+        m_iter = fileIterator();
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -86,6 +109,25 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        open(null);
+    }
+
+    /**
+     * Opens the scan, letting it skip pages none of whose tuples satisfy
+     * all of predicates (whose fields index this scan's TupleDesc).  Tables
+     * stored in a HeapFile skip them using its {@link ZoneMap}; other tables
+     * read every page.  The returned tuples are not filtered: tuples on the
+     * pages read are returned whether or not they satisfy predicates.
+     *
+     * @param predicates the predicates, or null to read every page
+     * @see Filter#open
+     */
+    public void open(List<Predicate> predicates) throws DbException, TransactionAbortedException {
+        m_iter.close();
+        if (predicates != null && !predicates.isEmpty() && m_f instanceof HeapFile)
+            m_iter = ((HeapFile) m_f).iterator(m_tid, new ArrayList<Predicate>(predicates));
+        else
+            m_iter = fileIterator();
         m_iter.open();
     }
 
@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -39,16 +39,51 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            // an optional last argument "slotted" writes SlottedPages
+            if (args.length==6 && args[5].toLowerCase().equals("slotted"))
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else if (args.length==6) {
+                System.err.println("Unknown page format " + args[5]);
+                return;
+            } else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
         }
+        } else if (args[0].equals("columnize")) {
+            // columnize file.dat numcols [types]: writes the columns of a
+            // heap file to file.dat.0, file.dat.1, ... for a ColumnFile
+            if (args.length<3 || args.length>4){
+                System.err.println("Unexpected number of arguments to columnize ");
+                return;
+            }
+            File heapFile = new File(args[1]);
+            int numOfAttributes=Integer.parseInt(args[2]);
+            Type[] ts = new Type[numOfAttributes];
+            String[] typeStringAr = args.length == 4 ? args[3].split(",") : null;
+            if (typeStringAr != null && typeStringAr.length!=numOfAttributes) {
+                System.err.println("The number of types does not agree with the number of columns");
+                return;
+            }
+            for (int i=0;i<numOfAttributes;i++) {
+                String s = typeStringAr == null ? "int" : typeStringAr[i].toLowerCase();
+                if (s.equals("int"))
+                    ts[i]=Type.INT_TYPE;
+                else if (s.equals("string"))
+                    ts[i]=Type.STRING_TYPE;
+                else {
+                    System.err.println("Unknown type " + s);
+                    return;
+                }
+            }
+            ColumnFile.convert(heapFile, new TupleDesc(ts), heapFile);
         } else if (args[0].equals("print")) {
             File tableFile = new File(args[1]);
             int columns = Integer.parseInt(args[2]);
@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages: each tuple
+ * is stored in a variable-length record, so a table whose strings are
+ * mostly much shorter than {@link Type#STRING_LEN} fits many more tuples
+ * on a page, and a scan reads correspondingly fewer pages.  In every other
+ * respect (page I/O, memory-mapped reads, read-ahead, inserts and deletes)
+ * it behaves like a HeapFile.
+ * <p>
+ * Tables are stored in this format by giving them the <tt>slotted</tt>
+ * option in the catalog file, and their data files are written by
+ * {@link HeapFileEncoder#convertSlotted}.
+ *
+ * @see SlottedPage
+ * @see Catalog#loadSchema
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    protected TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    protected byte[] createEmptyPageData() {
+        return SlottedPage.createEmptyPageData();
+    }
+}
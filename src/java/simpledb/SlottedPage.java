@@ -0,0 +1,535 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a
+ * SlottedHeapFile.  Unlike a HeapPage, whose slots are all
+ * {@link TupleDesc#getSize} bytes wide, a SlottedPage stores each tuple in
+ * a variable-length record, so strings only take as many bytes as they
+ * have characters.
+ * <p>
+ * Records are appended from the end of the page towards the front, and a
+ * slot directory at the front of the page records where each one starts.
+ * A tuple keeps its slot number (and so its RecordId) for as long as it is
+ * on the page; space freed by deletes is reclaimed by compacting the
+ * records when an insert needs it.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Bytes at the front of the page before the slot directory. */
+    public static final int HEADER_SIZE = 4;
+
+    /** Bytes per slot directory entry. */
+    public static final int SLOT_SIZE = 4;
+
+    /** Bytes used to store the length of a string field. */
+    public static final int STRING_LEN_SIZE = 2;
+
+    // strings are stored one byte per character, as in HeapPage
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    final HeapPageId pid;
+    final TupleDesc td;
+
+    // the current contents of the page; inserts and deletes update it in
+    // place, so getPageData() is always a plain copy
+    private final byte[] m_page;
+    private final ByteBuffer m_buf;
+    private final int m_pageSize;
+
+    // decoded tuples, cached per slot; null if the slot is empty or has not
+    // been decoded yet
+    private Tuple[] m_tuples;
+
+    // before-image, captured copy-on-write: null means the page has not been
+    // modified since the last setBeforeImage().  oldDataLock guards it, and
+    // is also the page's latch: inserts and deletes hold it while they
+    // change m_page, and getPageData() while it copies it, so that a page
+    // written back while its transaction changes it is never half-changed.
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId m_tid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     * The format of a SlottedPage is:
+     * <ul>
+     * <li>a 2 byte count of the entries in the slot directory,
+     * <li>a 2 byte offset of the start of the record area, where 0 (as on
+     *   an all-zero, empty page) means the end of the page,
+     * <li>the slot directory: for each slot, the 2 byte offset of its record
+     *   (0 if the slot is empty) and the 2 byte length of the record,
+     * <li>free space, and
+     * <li>the records, packed against the end of the page.
+     * </ul>
+     * A record holds the fields of its tuple in TupleDesc order: an
+     * INT_TYPE takes 4 bytes, and a STRING_TYPE takes a 2 byte length
+     * followed by that many bytes.  All offsets and lengths are unsigned,
+     * so pages may be at most 65535 bytes long.
+     * <p>
+     * The data is copied, so the caller may reuse the array.
+     *
+     * @see Database#getCatalog
+     * @see Catalog#getTupleDesc
+     * @see BufferPool#getPageSize()
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage from the remaining bytes of a buffer, in the
+     * format described in {@link #SlottedPage(HeapPageId, byte[])}.
+     */
+    SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a SlottedPage for a table that is not (yet) in the catalog.
+     * Used by HeapFileEncoder.
+     */
+    SlottedPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = td;
+        m_pageSize = data.remaining();
+        if (m_pageSize < HEADER_SIZE || m_pageSize > 0xffff)
+            throw new IOException("bad page size " + m_pageSize);
+        m_page = new byte[m_pageSize];
+        data.duplicate().get(m_page);
+        m_buf = ByteBuffer.wrap(m_page);
+
+        int numSlots = getNumSlots();
+        int dirEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        if (dirEnd > getRecordStart())
+            throw new IOException("corrupt slot directory");
+        for (int i = 0; i < numSlots; i++) {
+            int off = getSlotOffset(i);
+            if (off != 0 && (off < dirEnd || off + getSlotLength(i) > m_pageSize))
+                throw new IOException("corrupt slot " + i);
+        }
+        m_tuples = new Tuple[numSlots];
+    }
+
+    /** @return the number of entries in the slot directory */
+    public int getNumSlots() {
+        return m_buf.getShort(0) & 0xffff;
+    }
+
+    private void setNumSlots(int n) {
+        m_buf.putShort(0, (short) n);
+    }
+
+    /** @return the offset of the first byte of the record area */
+    private int getRecordStart() {
+        int start = m_buf.getShort(2) & 0xffff;
+        return start == 0 ? m_pageSize : start;
+    }
+
+    private void setRecordStart(int start) {
+        m_buf.putShort(2, (short) (start == m_pageSize ? 0 : start));
+    }
+
+    private int getSlotOffset(int i) {
+        return m_buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+    }
+
+    private int getSlotLength(int i) {
+        return m_buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        m_buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        m_buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * @return the number of bytes a record of td takes if every string in
+     *   it is as long as possible
+     */
+    public static int maxRecordSize(TupleDesc td) {
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                len += STRING_LEN_SIZE + Type.STRING_LEN;
+            else
+                len += td.getFieldType(j).getLen();
+        }
+        return len;
+    }
+
+    /** @return the number of bytes t takes as a record on a SlottedPage */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                len += STRING_LEN_SIZE + stringLength((StringField) t.getField(j));
+            else
+                len += td.getFieldType(j).getLen();
+        }
+        return len;
+    }
+
+    private static int stringLength(StringField f) {
+        return Math.min(f.getValue().length(), Type.STRING_LEN);
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+                if (oldDataRef == null)
+                    oldDataRef = getPageData();
+            }
+            return new SlottedPage(pid, td, ByteBuffer.wrap(oldDataRef));
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Make the current contents of this page its before-image.  The copy is
+     * deferred until the page is next modified.
+     */
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = null;
+        }
+    }
+
+    /**
+     * Called before every modification: if this is the first change since
+     * the last setBeforeImage(), snapshot the page as its before-image.
+     */
+    private void preModify() {
+        synchronized(oldDataLock)
+        {
+        if (oldData == null)
+            oldData = m_page.clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the tuple in slot i, decoding it from the page if it has not
+     * been decoded yet.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    Tuple getTuple(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        Tuple t = m_tuples[i];
+        if (t == null) {
+            t = readTuple(i);
+            m_tuples[i] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Decodes the record in slot slotId.
+     */
+    private Tuple readTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int off = getSlotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.STRING_TYPE) {
+                int len = m_buf.getShort(off) & 0xffff;
+                off += STRING_LEN_SIZE;
+                t.setField(j, new StringField(new String(m_page, off, len, CHARSET), Type.STRING_LEN));
+                off += len;
+            } else {
+                t.setField(j, type.parse(m_buf, off));
+                off += type.getLen();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Encodes t as a record starting at offset off.
+     */
+    private void writeRecord(Tuple t, int off) {
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(j)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                m_buf.putShort(off, (short) len);
+                off += STRING_LEN_SIZE;
+                for (int k = 0; k < len; k++)
+                    m_page[off + k] = (byte) s.charAt(k);
+                off += len;
+            } else {
+                type.serialize(t.getField(j), m_buf, off);
+                off += type.getLen();
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the SlottedPage constructor and
+     * have it produce an identical SlottedPage object.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        synchronized (oldDataLock) {
+            return m_page.clone();
+        }
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     * Used to add new, empty pages to the file. Passing the results of
+     * this method to the SlottedPage constructor will create a SlottedPage
+     * with no valid tuples in it.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        int len = BufferPool.getPageSize();
+        return new byte[len]; //all 0
+    }
+
+    /**
+     * @return the number of bytes free on this page, counting the space
+     *   left by deleted records but not the slot directory entry a new
+     *   tuple may need
+     */
+    public int getFreeSpace() {
+        int free = m_pageSize - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+        for (int i = 0; i < getNumSlots(); i++)
+            free -= getSlotLength(i);
+        return free;
+    }
+
+    /**
+     * @return true if a tuple with the longest possible strings fits on
+     *   this page
+     */
+    public boolean hasFreeSpace() {
+        return getFreeSpace() >= maxRecordSize(td) + SLOT_SIZE;
+    }
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean fits(Tuple t) {
+        int need = recordSize(t);
+        if (findEmptySlot() < 0)
+            need += SLOT_SIZE;
+        return need <= getFreeSpace();
+    }
+
+    /** @return the first empty slot in the directory, or -1 if none is */
+    private int findEmptySlot() {
+        int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++)
+            if (getSlotOffset(i) == 0)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Moves all records against the end of the page, squeezing out the
+     * space left by deleted records.  Slot numbers do not change.
+     */
+    private void compact() {
+        int numSlots = getNumSlots();
+        Integer[] order = new Integer[numSlots];
+        for (int i = 0; i < numSlots; i++)
+            order[i] = i;
+        // move the records nearest the end of the page first, so a record
+        // never overwrites one that has not been moved yet
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return getSlotOffset(b) - getSlotOffset(a);
+            }
+        });
+        int end = m_pageSize;
+        for (int i : order) {
+            int off = getSlotOffset(i);
+            if (off == 0)
+                break;
+            int len = getSlotLength(i);
+            end -= len;
+            System.arraycopy(m_page, off, m_page, end, len);
+            setSlot(i, end, len);
+        }
+        int dirEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        Arrays.fill(m_page, dirEnd, end, (byte) 0);
+        setRecordStart(end);
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno()))
+            throw new DbException("Tuple does not exist in this page!");
+        int slot = rid.tupleno();
+        synchronized (oldDataLock) {
+            preModify();
+            removeRecord(slot);
+        }
+    }
+
+    /** Empties slot slot, which is used. */
+    private void removeRecord(int slot) {
+        int off = getSlotOffset(slot);
+        int len = getSlotLength(slot);
+        Arrays.fill(m_page, off, off + len, (byte) 0);
+        if (off == getRecordStart())
+            setRecordStart(off + len);
+        setSlot(slot, 0, 0);
+        m_tuples[slot] = null;
+
+        // drop empty slots off the end of the directory
+        int numSlots = getNumSlots();
+        while (numSlots > 0 && getSlotOffset(numSlots - 1) == 0) {
+            numSlots--;
+            setSlot(numSlots, 0, 0);
+        }
+        setNumSlots(numSlots);
+        if (numSlots == 0)
+            setRecordStart(m_pageSize);
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.  The tuple is encoded immediately,
+     *  so later changes to its fields are not reflected on the page.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("TupleDesc does not match this page!");
+        synchronized (oldDataLock) {
+            if (!fits(t))
+                throw new DbException("Not enough free space on page!");
+            preModify();
+            addRecord(t);
+        }
+    }
+
+    /** Stores t in an empty or new slot; it fits. */
+    private void addRecord(Tuple t) {
+        int len = recordSize(t);
+        int slot = findEmptySlot();
+        int numSlots = getNumSlots();
+        int dirEnd = HEADER_SIZE + (slot < 0 ? numSlots + 1 : numSlots) * SLOT_SIZE;
+        if (getRecordStart() - len < dirEnd)
+            compact();
+        if (slot < 0) {
+            slot = numSlots;
+            setNumSlots(numSlots + 1);
+            if (slot >= m_tuples.length)
+                m_tuples = Arrays.copyOf(m_tuples, Math.max(8, m_tuples.length * 2));
+        }
+
+        int off = getRecordStart() - len;
+        writeRecord(t, off);
+        setRecordStart(off);
+        setSlot(slot, off, len);
+
+        m_tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            preModify();
+        m_tid = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return m_tid;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && getSlotOffset(i) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     * (note that this iterator shouldn't return tuples in empty slots!)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int curr = nextUsed(0);
+
+            private int nextUsed(int i) {
+                int numSlots = getNumSlots();
+                while (i < numSlots && getSlotOffset(i) == 0)
+                    i++;
+                return i;
+            }
+
+            public boolean hasNext() {
+                return curr < getNumSlots();
+            }
+
+            public Tuple next() {
+                if (curr >= getNumSlots())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(curr);
+                curr = nextUsed(curr + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -78,7 +78,7 @@ public class TableStats {
      */
     private int m_tableid;
     private int m_cost;
-    private HeapFile m_tablefile;
+    private DbFile m_tablefile;
     private int m_ntuples;
     private TupleDesc m_td;
 
@@ -97,7 +97,7 @@ public class TableStats {
 
         m_tableid = tableid;
         m_cost = ioCostPerPage;
-        m_tablefile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        m_tablefile = Database.getCatalog().getDatabaseFile(tableid);
 
 
         //Create Iterator
@@ -195,7 +195,12 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return m_tablefile.numPages() * m_cost;
+        int numPages;
+        if (m_tablefile instanceof ColumnFile)
+            numPages = ((ColumnFile) m_tablefile).numPages();
+        else
+            numPages = ((HeapFile) m_tablefile).numPages();
+        return numPages * m_cost;
     }
 
     /**
@@ -0,0 +1,40 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface implemented by the pages of a HeapFile: pages
+ * that store tuples of a single table, addressed by the slot numbers in
+ * their RecordIds.  HeapFile only talks to its pages through this
+ * interface, so subclasses can store them in a different on-disk format.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the tuple does not fit on the page
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if any tuple of this page's table is guaranteed to fit
+     *   on the page
+     */
+    public boolean hasFreeSpace();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * TwoQPolicy is the 2Q replacement policy (Johnson and Shasha, VLDB 1994),
+ * which keeps pages read only once, such as those of a large sequential
+ * scan, from pushing the frequently used pages out of the BufferPool.
+ * <p>
+ * New pages enter a FIFO queue, A1in, that holds about a quarter of the
+ * frames.  A page referenced again while in A1in, or read again soon after
+ * being evicted from it (its id is still in the ghost queue A1out), moves to
+ * the main queue Am; a scan's pages never do.  Victims come from A1in while
+ * it is over its share, and otherwise from Am, which is managed as a CLOCK
+ * so that hits only set a reference bit and take no lock.  A page read
+ * ahead of a scan enters A1in marked prefetched, so that the scan reaching
+ * it is its first reference rather than a second.
+ */
+public class TwoQPolicy implements ReplacementPolicy {
+
+    /** m_ref of a prefetched page not yet used: 0 once it is, 1 after. */
+    static final int PREFETCHED = 2;
+
+    private final int m_inTarget;      // Kin
+    private final int m_outTarget;     // Kout
+    private final AtomicIntegerArray m_ref;
+
+    // protected by the BufferPool
+    private final FrameList m_in;
+    private final FrameList m_main;
+    private final PageId[] m_pids;
+    private final LinkedHashSet<PageId> m_out = new LinkedHashSet<PageId>();
+
+    /**
+     * @param numFrames the number of frames in the BufferPool
+     */
+    public TwoQPolicy(int numFrames) {
+        m_inTarget = Math.max(1, numFrames / 4);
+        m_outTarget = Math.max(1, numFrames / 2);
+        m_ref = new AtomicIntegerArray(numFrames);
+        m_in = new FrameList(numFrames);
+        m_main = new FrameList(numFrames);
+        m_pids = new PageId[numFrames];
+    }
+
+    public void admit(int frame, PageId pid) {
+        m_pids[frame] = pid;
+        m_ref.set(frame, 0);
+        if (m_out.remove(pid))
+            m_main.addLast(frame);
+        else
+            m_in.addLast(frame);
+    }
+
+    public void admitPrefetched(int frame, PageId pid) {
+        admit(frame, pid);
+        if (m_in.contains(frame))
+            m_ref.set(frame, PREFETCHED);
+    }
+
+    public void touch(int frame) {
+        int ref = m_ref.get(frame);
+        if (ref == 0)
+            m_ref.lazySet(frame, 1);
+        else if (ref == PREFETCHED)
+            m_ref.compareAndSet(frame, PREFETCHED, 0);
+    }
+
+    public int[] hottestFirst() {
+        int[] frames = new int[m_in.size() + m_main.size()];
+        int[] ref = FrameList.snapshot(m_ref);
+        // referenced pages move to Am rather than being evicted, and the
+        // main queue outlives A1in
+        int at = m_main.newestFirst(frames, 0, ref, true);
+        at = m_in.newestFirst(frames, at, ref, true);
+        at = m_main.newestFirst(frames, at, ref, false);
+        m_in.newestFirst(frames, at, ref, false);
+        return frames;
+    }
+
+    public int victim(Evictable evictable) {
+        int frame = -1;
+        if (m_in.size() > m_inTarget || m_main.size() == 0)
+            frame = victimFromIn(evictable);
+        if (frame < 0)
+            frame = victimFromMain(evictable);
+        if (frame < 0)
+            frame = victimFromIn(evictable);
+        return frame;
+    }
+
+    private int victimFromIn(Evictable evictable) {
+        for (int i = 0, n = m_in.size(); i < n; i++) {
+            int frame = m_in.head();
+            m_in.remove(frame);
+            if (m_ref.get(frame) == 1) {
+                // referenced again while in A1in: frequently used
+                m_ref.set(frame, 0);
+                m_main.addLast(frame);
+                continue;
+            }
+            if (!evictable.canEvict(frame)) {
+                m_in.addLast(frame);
+                continue;
+            }
+            m_out.add(m_pids[frame]);
+            if (m_out.size() > m_outTarget) {
+                Iterator<PageId> it = m_out.iterator();
+                it.next();
+                it.remove();
+            }
+            m_pids[frame] = null;
+            return frame;
+        }
+        return -1;
+    }
+
+    private int victimFromMain(Evictable evictable) {
+        // one pass clears the reference bits, the next finds a victim
+        for (int i = 0, n = 2 * m_main.size(); i < n; i++) {
+            int frame = m_main.head();
+            m_main.remove(frame);
+            if (m_ref.get(frame) == 1) {
+                m_ref.set(frame, 0);
+                m_main.addLast(frame);
+                continue;
+            }
+            if (!evictable.canEvict(frame)) {
+                m_main.addLast(frame);
+                continue;
+            }
+            m_pids[frame] = null;
+            return frame;
+        }
+        return -1;
+    }
+
+    public void remove(int frame) {
+        m_in.remove(frame);
+        m_main.remove(frame);
+        m_pids[frame] = null;
+        m_ref.set(frame, 0);
+    }
+}
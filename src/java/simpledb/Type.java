@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,10 +54,72 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = Math.max(0, Math.min(STRING_LEN, buf.getInt(offset)));
+            String s;
+            if (buf.hasArray()) {
+                s = new String(buf.array(), buf.arrayOffset() + offset + 4, strLen, CHARSET);
+            } else {
+                byte[] bs = m_scratch.get();
+                ByteBuffer b = buf.duplicate();
+                b.position(offset + 4);
+                b.get(bs, 0, strLen);
+                s = new String(bs, 0, strLen, CHARSET);
+            }
+            return new StringField(s, STRING_LEN);
+        }
+
+        /** Writes the length, the characters (one byte each, as
+            DataOutputStream.writeBytes does) and zero padding. */
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), STRING_LEN);
+            buf.putInt(offset, len);
+            offset += 4;
+            for (int i = 0; i < len; i++)
+                buf.put(offset + i, (byte) s.charAt(i));
+            zero(buf, offset + len, STRING_LEN - len);
+        }
     };
     
     public static final int STRING_LEN = 128;
 
+    // strings are stored one byte per character
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    // scratch space for decoding strings out of direct / mapped buffers
+    private static final ThreadLocal<byte[]> m_scratch = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[STRING_LEN];
+        }
+    };
+
+    private static final byte[] ZEROES = new byte[1024];
+
+    /**
+     * Zeroes len bytes of buf starting at offset, in bulk.  Does not change
+     * the position of buf.
+     */
+    public static void zero(ByteBuffer buf, int offset, int len) {
+        if (len <= 0)
+            return;
+        if (buf.hasArray()) {
+            int start = buf.arrayOffset() + offset;
+            java.util.Arrays.fill(buf.array(), start, start + len, (byte) 0);
+            return;
+        }
+        ByteBuffer b = buf.duplicate();
+        b.position(offset);
+        while (len > 0) {
+            int n = Math.min(len, ZEROES.length);
+            b.put(ZEROES, 0, n);
+            len -= n;
+        }
+    }
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -60,4 +134,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Decodes a field of this type stored at an absolute offset in a buffer,
+   * without changing the buffer's position.  This is the format written by
+   * {@link Field#serialize} and {@link #serialize(Field, ByteBuffer, int)}.
+   * @param buf the buffer to read from
+   * @param offset the offset of the first byte of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Encodes f, which must be of this type, into exactly {@link #getLen}
+   * bytes of buf starting at an absolute offset, without changing the
+   * buffer's position.
+   * @param f the field to write
+   * @param buf the buffer to write to
+   * @param offset the offset in buf of the first byte to write
+   */
+    public abstract void serialize(Field f, ByteBuffer buf, int offset);
+
 }
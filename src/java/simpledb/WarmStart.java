@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WarmStart reloads into a BufferPool the pages it held when the database
+ * last shut down, so that queries after a restart do not all start against
+ * an empty pool.
+ * <p>
+ * {@link BufferPool#saveHotPages} writes the ids of the resident pages of
+ * heap files to a small file, each with its recency rank, together with
+ * the length and modification time of each table they belong to.  {@link
+ * BufferPool#warmStart} reads the file back once the Catalog is loaded and
+ * returns a WarmStart, which reads the hottest pages that fit in the pool
+ * on background threads, one table per thread in file-offset order, into
+ * free frames only.  Tables that are no longer in the Catalog, or whose
+ * file has changed since the pages were saved, are skipped; if a table
+ * changes while it is being loaded, its pages stop loading.
+ *
+ * @Threadsafe
+ */
+public class WarmStart {
+
+    /** The name of the file the hot pages are saved to by default. */
+    public static final String FILE_NAME = "hotpages";
+
+    private static final int MAGIC = 0x53444257;
+
+    /** A table with pages to load, as it was when they were saved. */
+    private static class Table {
+        final HeapFile file;
+        final long length;
+        final long modified;
+        final List<Integer> pages = new ArrayList<Integer>();
+
+        Table(HeapFile file, long length, long modified) {
+            this.file = file;
+            this.length = length;
+            this.modified = modified;
+        }
+
+        boolean changed() {
+            return file.getFile().length() != length || file.getFile().lastModified() != modified;
+        }
+    }
+
+    private final ExecutorService m_executor;
+    private final AtomicInteger m_loaded = new AtomicInteger();
+    private volatile boolean m_cancelled = false;
+    private volatile boolean m_stoppedEarly = false;
+
+    private WarmStart(int threads) {
+        m_executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-warmstart-" + m_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** @return the heap file of table tableId in the Catalog, or null */
+    private static HeapFile heapFile(int tableId) {
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+            return f instanceof HeapFile ? (HeapFile) f : null;
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the pages of heap files among pids, hottest first, to file f.
+     */
+    static void save(List<PageId> pids, File f) throws IOException {
+        Map<Integer,HeapFile> tables = new HashMap<Integer,HeapFile>();
+        List<PageId> saved = new ArrayList<PageId>();
+        for (PageId pid : pids) {
+            if (!(pid instanceof HeapPageId))
+                continue;
+            HeapFile hf = tables.get(pid.getTableId());
+            if (hf == null && !tables.containsKey(pid.getTableId())) {
+                hf = heapFile(pid.getTableId());
+                tables.put(pid.getTableId(), hf);
+            }
+            if (hf != null)
+                saved.add(pid);
+        }
+        tables.values().removeAll(Collections.singleton(null));
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(tables.size());
+            for (Map.Entry<Integer,HeapFile> e : tables.entrySet()) {
+                out.writeInt(e.getKey());
+                out.writeLong(e.getValue().getFile().length());
+                out.writeLong(e.getValue().getFile().lastModified());
+            }
+            out.writeInt(saved.size());
+            for (int rank = 0; rank < saved.size(); rank++) {
+                out.writeInt(saved.get(rank).getTableId());
+                out.writeInt(saved.get(rank).pageNumber());
+                out.writeInt(rank);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the pages saved in file f and starts loading the hottest of
+     * them that fit into pool.
+     *
+     * @throws IOException if f cannot be read or is not a saved page list
+     */
+    static WarmStart start(final BufferPool pool, File f) throws IOException {
+        Map<Integer,Table> tables = new HashMap<Integer,Table>();
+        int[][] pages;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException(f + " is not a saved page list");
+            for (int n = in.readInt(); n > 0; n--) {
+                int tableId = in.readInt();
+                long length = in.readLong(), modified = in.readLong();
+                HeapFile hf = heapFile(tableId);
+                Table t = hf == null ? null : new Table(hf, length, modified);
+                if (t != null && !t.changed())
+                    tables.put(tableId, t);
+            }
+            pages = new int[in.readInt()][];
+            for (int i = 0; i < pages.length; i++)
+                pages[i] = new int[] { in.readInt(), in.readInt(), in.readInt() };
+        } finally {
+            in.close();
+        }
+
+        // the hottest pages that fit, of tables that have not changed
+        Arrays.sort(pages, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[2] < b[2] ? -1 : (a[2] == b[2] ? 0 : 1);
+            }
+        });
+        int wanted = pool.getNumPages();
+        for (int i = 0; i < pages.length && wanted > 0; i++) {
+            Table t = tables.get(pages[i][0]);
+            if (t != null) {
+                t.pages.add(pages[i][1]);
+                wanted--;
+            }
+        }
+
+        List<Table> toLoad = new ArrayList<Table>();
+        for (Table t : tables.values()) {
+            if (!t.pages.isEmpty()) {
+                Collections.sort(t.pages);
+                toLoad.add(t);
+            }
+        }
+        final WarmStart ws = new WarmStart(Math.max(1, Math.min(Prefetcher.IO_THREADS, toLoad.size())));
+        for (final Table t : toLoad) {
+            ws.m_executor.execute(new Runnable() {
+                public void run() {
+                    for (int pgNo : t.pages) {
+                        if (ws.m_cancelled)
+                            return;
+                        if (t.changed()) {
+                            ws.m_stoppedEarly = true;
+                            return;
+                        }
+                        if (pool.warmPage(new HeapPageId(t.file.getId(), pgNo)))
+                            ws.m_loaded.incrementAndGet();
+                    }
+                }
+            });
+        }
+        ws.m_executor.shutdown();
+        return ws;
+    }
+
+    /** Stops loading pages; the pages already loaded stay in the pool. */
+    public void cancel() {
+        m_cancelled = true;
+    }
+
+    /**
+     * Waits for the pages to finish loading.
+     *
+     * @param timeout the longest time to wait, in ms
+     * @return true if loading has finished
+     */
+    public boolean await(long timeout) throws InterruptedException {
+        return m_executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return the number of pages loaded into the pool so far */
+    public int getPagesLoaded() {
+        return m_loaded.get();
+    }
+
+    /**
+     * @return true if some table changed while its pages were loading, so
+     *   that they stopped loading
+     */
+    public boolean stoppedEarly() {
+        return m_stoppedEarly;
+    }
+}
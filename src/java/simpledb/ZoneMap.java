@@ -0,0 +1,397 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the range of values of each
+ * of its columns: the minimum and maximum of every INT_TYPE column, and
+ * the minimum and maximum of the first {@link #PREFIX_LEN} characters of
+ * every STRING_TYPE column.  A scan can then skip any page whose ranges
+ * show that no tuple on it satisfies the scan's predicates.
+ * <p>
+ * A page's zone is always a superset of the values on the page, or
+ * unknown (which means the page must be read).  HeapFile maintains it:
+ * writePage records the exact zone of the page written, inserts widen the
+ * zone of the page they insert into, and scans with pushed-down predicates
+ * fill in the zones of clean pages they read whose zone is unknown.
+ * <p>
+ * The zones are stored in a sidecar file next to the data file (with the
+ * suffix <tt>.zm</tt>): a header followed by one fixed-size entry per page.
+ * The entry of a page is marked unknown before the page is written and
+ * filled in afterwards, so the sidecar never claims a range that is too
+ * narrow for what is on disk.  The header records the length and
+ * modification time the data file had when the sidecar was last brought
+ * up to date with it; a sidecar whose data file has changed since, by a
+ * write that did not go through this map, is discarded when it is loaded.
+ * {@link HeapFileEncoder} deletes the sidecar of a table it writes.
+ *
+ * @see HeapFile#getZoneMap
+ * @see SeqScan#open(List)
+ */
+public class ZoneMap {
+
+    /** Number of leading characters of strings whose range is kept. */
+    public static final int PREFIX_LEN = 8;
+
+    /** The suffix of the sidecar file's name. */
+    public static final String SUFFIX = ".zm";
+
+    private static final int MAGIC = 0x5a4d4151;
+    // magic, entry size, data file length, data file modification time
+    private static final int HEADER_SIZE = 24;
+
+    // entry states
+    private static final byte UNKNOWN = 0;
+    private static final byte EMPTY = 1;
+    private static final byte KNOWN = 2;
+
+    /** The value ranges of one page. */
+    private class Zone {
+        boolean empty = true;
+        final int[] min = new int[m_td.numFields()];
+        final int[] max = new int[m_td.numFields()];
+        final String[] minPrefix = new String[m_td.numFields()];
+        final String[] maxPrefix = new String[m_td.numFields()];
+
+        void add(Tuple t) {
+            for (int i = 0; i < m_td.numFields(); i++) {
+                Field f = t.getField(i);
+                if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                    int v = ((IntField) f).getValue();
+                    if (empty || v < min[i]) min[i] = v;
+                    if (empty || v > max[i]) max[i] = v;
+                } else {
+                    String p = prefix(((StringField) f).getValue());
+                    if (empty || p.compareTo(minPrefix[i]) < 0) minPrefix[i] = p;
+                    if (empty || p.compareTo(maxPrefix[i]) > 0) maxPrefix[i] = p;
+                }
+            }
+            empty = false;
+        }
+
+        /** @return false if no tuple in this zone can satisfy p */
+        boolean mayMatch(Predicate p) {
+            if (empty)
+                return false;
+            int i = p.getField();
+            Field operand = p.getOperand();
+            if (i < 0 || i >= m_td.numFields())
+                return true;
+            if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                if (!(operand instanceof IntField))
+                    return true;
+                int v = ((IntField) operand).getValue();
+                switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    return min[i] <= v && v <= max[i];
+                case NOT_EQUALS:
+                    return !(min[i] == v && max[i] == v);
+                case GREATER_THAN:
+                    return max[i] > v;
+                case GREATER_THAN_OR_EQ:
+                    return max[i] >= v;
+                case LESS_THAN:
+                    return min[i] < v;
+                case LESS_THAN_OR_EQ:
+                    return min[i] <= v;
+                }
+            } else {
+                if (!(operand instanceof StringField))
+                    return true;
+                // truncating to a prefix preserves order, so s op v implies
+                // prefix(s) op' prefix(v) for the non-strict op'
+                String v = prefix(((StringField) operand).getValue());
+                switch (p.getOp()) {
+                case EQUALS:
+                    return minPrefix[i].compareTo(v) <= 0 && v.compareTo(maxPrefix[i]) <= 0;
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    return maxPrefix[i].compareTo(v) >= 0;
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    return minPrefix[i].compareTo(v) <= 0;
+                default:
+                    return true;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final File m_f;
+    private final File m_data;
+    private final TupleDesc m_td;
+    private final int m_entrySize;
+
+    // all fields below are protected by this
+    private RandomAccessFile m_raf;
+    private ArrayList<Zone> m_zones;        // null until loaded; null entries are unknown
+    private int[] m_stamps = new int[0];    // bumped before each change to a page
+    private boolean m_failed = false;
+
+    /**
+     * @param f the sidecar file
+     * @param data the data file of the table
+     * @param td the schema of the table
+     */
+    public ZoneMap(File f, File data, TupleDesc td) {
+        m_f = f;
+        m_data = data;
+        m_td = td;
+        int size = 1;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.INT_TYPE ? 8 : 2 * (1 + 2 * PREFIX_LEN);
+        m_entrySize = size;
+    }
+
+    /** @return the sidecar file of data file data */
+    public static File sidecar(File data) {
+        return new File(data.getPath() + SUFFIX);
+    }
+
+    /**
+     * Deletes the sidecar of data file data, which is about to be
+     * rewritten other than through its HeapFile.
+     */
+    public static void discard(File data) {
+        sidecar(data).delete();
+    }
+
+    private static String prefix(String s) {
+        return s.length() <= PREFIX_LEN ? s : s.substring(0, PREFIX_LEN);
+    }
+
+    /**
+     * Reads the sidecar, if there is a valid one.  A missing, unreadable or
+     * mismatched sidecar leaves every page unknown; one that does not match
+     * the data file as it is now is deleted, so that none of its entries
+     * can be taken for current once the header is stamped again.
+     */
+    private void load() {
+        if (m_zones != null)
+            return;
+        m_zones = new ArrayList<Zone>();
+        if (!m_f.exists())
+            return;
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(m_f)));
+            try {
+                if (m_f.length() < HEADER_SIZE || dis.readInt() != MAGIC || dis.readInt() != m_entrySize)
+                    return;
+                if (dis.readLong() != m_data.length() || dis.readLong() != m_data.lastModified()) {
+                    dis.close();
+                    m_f.delete();
+                    return;
+                }
+                byte[] entry = new byte[m_entrySize];
+                long n = (m_f.length() - HEADER_SIZE) / m_entrySize;
+                for (long pg = 0; pg < n; pg++) {
+                    dis.readFully(entry);
+                    m_zones.add(decode(ByteBuffer.wrap(entry)));
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            m_zones.clear();
+        }
+    }
+
+    private Zone decode(ByteBuffer b) {
+        byte state = b.get();
+        if (state == UNKNOWN)
+            return null;
+        Zone z = new Zone();
+        if (state == EMPTY)
+            return z;
+        z.empty = false;
+        for (int i = 0; i < m_td.numFields(); i++) {
+            if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                z.min[i] = b.getInt();
+                z.max[i] = b.getInt();
+            } else {
+                z.minPrefix[i] = decodePrefix(b);
+                z.maxPrefix[i] = decodePrefix(b);
+            }
+        }
+        return z;
+    }
+
+    private static String decodePrefix(ByteBuffer b) {
+        int len = b.get();
+        char[] cs = new char[PREFIX_LEN];
+        for (int i = 0; i < PREFIX_LEN; i++)
+            cs[i] = b.getChar();
+        return new String(cs, 0, len);
+    }
+
+    private byte[] encode(Zone z) {
+        ByteBuffer b = ByteBuffer.allocate(m_entrySize);
+        if (z == null) {
+            b.put(UNKNOWN);
+        } else if (z.empty) {
+            b.put(EMPTY);
+        } else {
+            b.put(KNOWN);
+            for (int i = 0; i < m_td.numFields(); i++) {
+                if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                    b.putInt(z.min[i]);
+                    b.putInt(z.max[i]);
+                } else {
+                    encodePrefix(b, z.minPrefix[i]);
+                    encodePrefix(b, z.maxPrefix[i]);
+                }
+            }
+        }
+        return b.array();
+    }
+
+    private static void encodePrefix(ByteBuffer b, String s) {
+        b.put((byte) s.length());
+        for (int i = 0; i < PREFIX_LEN; i++)
+            b.putChar(i < s.length() ? s.charAt(i) : 0);
+    }
+
+    private Zone get(int pgNo) {
+        load();
+        return pgNo < m_zones.size() ? m_zones.get(pgNo) : null;
+    }
+
+    private void set(int pgNo, Zone z) {
+        load();
+        while (m_zones.size() <= pgNo)
+            m_zones.add(null);
+        m_zones.set(pgNo, z);
+    }
+
+    private void write(int pgNo, Zone z) throws IOException {
+        if (m_failed)
+            return;
+        if (m_raf == null) {
+            m_raf = new RandomAccessFile(m_f, "rw");
+            if (m_raf.length() < HEADER_SIZE || m_raf.readInt() != MAGIC || m_raf.readInt() != m_entrySize) {
+                // no valid sidecar yet: start one with everything unknown
+                m_raf.setLength(0);
+                m_raf.writeInt(MAGIC);
+                m_raf.writeInt(m_entrySize);
+            }
+        }
+        m_raf.seek(HEADER_SIZE + (long) pgNo * m_entrySize);
+        m_raf.write(encode(z));
+        // every change to the data file goes through here, so the sidecar
+        // is as up to date with it as this stamp says
+        m_raf.seek(8);
+        m_raf.writeLong(m_data.length());
+        m_raf.writeLong(m_data.lastModified());
+    }
+
+    /**
+     * Records that page pgNo is about to change, so that a zone computed by
+     * a concurrent {@link #learn} from its old contents is not recorded.
+     */
+    public synchronized void touch(int pgNo) {
+        if (m_stamps.length <= pgNo)
+            m_stamps = Arrays.copyOf(m_stamps, Math.max(pgNo + 1, m_stamps.length * 2));
+        m_stamps[pgNo]++;
+    }
+
+    /** @return a stamp for {@link #learn}: the number of changes to page pgNo so far */
+    public synchronized int stamp(int pgNo) {
+        return pgNo < m_stamps.length ? m_stamps[pgNo] : 0;
+    }
+
+    /**
+     * Marks the zone of page pgNo unknown, on disk as well, before the page
+     * is written.
+     */
+    public synchronized void invalidate(int pgNo) throws IOException {
+        touch(pgNo);
+        set(pgNo, null);
+        write(pgNo, null);
+    }
+
+    /**
+     * Records the exact zone of page, which has just been written to disk.
+     */
+    public synchronized void update(int pgNo, TuplePage page) throws IOException {
+        touch(pgNo);
+        Zone z = compute(page);
+        set(pgNo, z);
+        write(pgNo, z);
+    }
+
+    /**
+     * Records the zone of page, a clean page read through the BufferPool
+     * whose zone is unknown, unless the page has changed since stamp was
+     * taken with {@link #stamp}.
+     */
+    public void learn(int pgNo, TuplePage page, int stamp) {
+        Zone z = compute(page);
+        synchronized (this) {
+            if (page.isDirty() != null || stamp(pgNo) != stamp || get(pgNo) != null)
+                return;
+            set(pgNo, z);
+            try {
+                write(pgNo, z);
+            } catch (IOException e) {
+                e.printStackTrace();
+                m_failed = true;
+            }
+        }
+    }
+
+    /**
+     * Widens the zone of page pgNo to include t, which has just been
+     * inserted into it.  The change is not written to the sidecar: the
+     * page's exact zone is written when the page is.
+     */
+    public synchronized void widen(int pgNo, Tuple t) {
+        Zone z = get(pgNo);
+        if (z != null)
+            z.add(t);
+    }
+
+    /**
+     * @return false if no tuple on page pgNo can satisfy all of preds
+     */
+    public synchronized boolean mayMatch(int pgNo, List<Predicate> preds) {
+        Zone z = get(pgNo);
+        if (z == null)
+            return true;
+        if (z.empty)
+            return false;
+        for (Predicate p : preds)
+            if (!z.mayMatch(p))
+                return false;
+        return true;
+    }
+
+    /** @return true if the zone of page pgNo is known */
+    public synchronized boolean isKnown(int pgNo) {
+        return get(pgNo) != null;
+    }
+
+    private Zone compute(TuplePage page) {
+        Zone z = new Zone();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            z.add(it.next());
+        return z;
+    }
+
+    /** Closes the sidecar file; it is reopened if needed. */
+    public synchronized void close() {
+        if (m_raf == null)
+            return;
+        try {
+            m_raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        m_raf = null;
+    }
+}
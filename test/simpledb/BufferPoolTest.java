@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 40;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * perPage, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * Unit test for the partitions of BufferPool: resident pages are found
+     * in their partition, and each partition evicts only its own pages.
+     */
+    @Test public void partitions() throws Exception {
+        BufferPool pool = Database.resetBufferPool(16, ReplacementPolicy.Kind.CLOCK);
+        assertEquals(1, pool.getNumPartitions());
+        pool = Database.resetBufferPool(16, ReplacementPolicy.Kind.CLOCK, 4);
+        assertEquals(4, pool.getNumPartitions());
+        assertEquals(16, pool.getNumPages());
+
+        Page first = pool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertSame(first, pool.getPage(tid, pid(0), Permissions.READ_ONLY));
+
+        // reading every page keeps at most 16 resident, so page 0 is gone
+        for (int pg = 0; pg < PAGES; pg++)
+            assertEquals(pid(pg), pool.getPage(tid, pid(pg), Permissions.READ_ONLY).getId());
+        assertNotSame(first, pool.getPage(tid, pid(0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Inserting into a table larger than some partitions spreads its pages
+     * over all of them; flushAllPages writes the dirty ones.
+     */
+    @Test public void flushAcrossPartitions() throws Exception {
+        BufferPool pool = Database.resetBufferPool(64, ReplacementPolicy.Kind.CLOCK, 8);
+
+        for (int i = 0; i < 100; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { -i, i });
+            pool.insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(-i);
+            row.add(i);
+            tuples.add(row);
+        }
+        pool.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * A scan of a table larger than the pool reads it through a ring of its
+     * own: the pages resident before the scan stay resident,
+     * and the scan still returns every tuple.
+     */
+    @Test public void scanThroughRing() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES / 2, ReplacementPolicy.Kind.CLOCK, 1);
+        assertNull(pool.scanRing(PAGES / 2));
+        assertEquals(BufferPool.SCAN_RING_PAGES, pool.scanRing(PAGES).numFrames());
+
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 4 * perPage, null, null);
+        Page[] resident = new Page[4];
+        for (int pg = 0; pg < resident.length; pg++)
+            resident[pg] = pool.getPage(tid, new HeapPageId(hot.getId(), pg), Permissions.READ_ONLY);
+
+        hf.setPrefetchWindow(4);
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        for (int pg = 0; pg < resident.length; pg++)
+            assertSame(resident[pg],
+                    pool.getPage(tid, new HeapPageId(hot.getId(), pg), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Resizing keeps the pages that fit: growing keeps every resident page,
+     * and shrinking writes dirty pages back before evicting them.
+     */
+    @Test public void resize() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES / 4, ReplacementPolicy.Kind.CLOCK, 2);
+        Page[] read = new Page[PAGES];
+        // no more pages than either partition holds
+        for (int pg = 0; pg < PAGES / 8; pg++)
+            read[pg] = pool.getPage(tid, pid(pg), Permissions.READ_ONLY);
+
+        // room for every page, however they hash to the partitions
+        pool.resize(2 * PAGES);
+        assertEquals(2 * PAGES, pool.getNumPages());
+        for (int pg = 0; pg < PAGES; pg++) {
+            Page p = pool.getPage(tid, pid(pg), Permissions.READ_WRITE);
+            if (pg < PAGES / 8)
+                assertSame(read[pg], p);
+            read[pg] = p;
+        }
+        for (int pg = 0; pg < PAGES; pg++)
+            assertSame(read[pg], pool.getPage(tid, pid(pg), Permissions.READ_ONLY));
+
+        // dirty every page, then shrink to an eighth
+        for (int pg = 0; pg < PAGES; pg++) {
+            HeapPage page = (HeapPage) read[pg];
+            Tuple t = page.iterator().next();
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        pool.resize(PAGES / 8);
+        assertEquals(PAGES / 8, pool.getNumPages());
+        int resident = 0;
+        for (int pg = 0; pg < PAGES; pg++)
+            if (read[pg] == pool.getPage(tid, pid(pg), Permissions.READ_ONLY))
+                resident++;
+        assertTrue(resident <= PAGES / 8);
+
+        pool.transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
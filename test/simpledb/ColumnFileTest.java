@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 3000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private ColumnFile cf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(COLUMNS, ROWS, 1000, null, tuples);
+        File out = File.createTempFile("columns", ".dat");
+        out.deleteOnExit();
+        ColumnFile.convert(heap, Utility.getTupleDesc(COLUMNS, "c"), out);
+        cf = new ColumnFile(out, Utility.getTupleDesc(COLUMNS, "c"));
+        for (int c = 0; c < COLUMNS; c++)
+            cf.getColumnFile(c).deleteOnExit();
+        Database.getCatalog().addTable(cf, "columns");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for ColumnFile.convert() and a scan of all columns
+     */
+    @Test public void convertAndScan() throws Exception {
+        SystemTestUtil.matchTuples(cf, tuples);
+        // 1 int column per 4 KB page -> 992 values per page
+        for (int c = 0; c < COLUMNS; c++)
+            assertEquals(4, cf.numPages(c));
+    }
+
+    /**
+     * Unit test for ColumnFile.iterator(tid, fields): only the pages of the
+     * projected columns are read.
+     */
+    @Test public void projectedScan() throws Exception {
+        DbFileIterator it = cf.iterator(tid, Collections.singleton(2));
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertNull(t.getField(0));
+            values.add(((IntField) t.getField(2)).getValue());
+        }
+        it.close();
+
+        assertEquals(ROWS, values.size());
+        for (int i = 0; i < ROWS; i++)
+            assertEquals(tuples.get(i).get(2), values.get(i));
+        assertEquals(cf.numPages(2), cf.getPagesRead());
+    }
+
+    /**
+     * Unit test for ColumnFile.insertTuple() and deleteTuple()
+     */
+    @Test public void insertAndDelete() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { -1, -2, -3, -4 });
+        Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        ArrayList<Integer> inserted = new ArrayList<Integer>();
+        for (int i = -1; i >= -4; i--)
+            inserted.add(i);
+        tuples.add(inserted);
+        SystemTestUtil.matchTuples(new SeqScan(tid, cf.getId(), "c"), tuples);
+
+        // delete the first row and the inserted one
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        tuples.remove(inserted);
+        tuples.remove(0);
+        SystemTestUtil.matchTuples(new SeqScan(tid, cf.getId(), "c"), tuples);
+    }
+
+    /**
+     * LogicalPlan.physicalPlan() scans only the columns a query refers to.
+     */
+    @Test public void physicalPlanProjects() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("columns", new TableStats(cf.getId(), 1000));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = cf.getPagesRead();
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "500");
+        lp.addProjectField("t.c3", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (ArrayList<Integer> tup : tuples)
+            if (tup.get(1) > 500)
+                expected.add(tup.get(3));
+        HashSet<Integer> actual = new HashSet<Integer>();
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+            n++;
+        }
+        plan.close();
+
+        assertEquals(expected, actual);
+        assertTrue(n > 0);
+        assertEquals(cf.numPages(1) + cf.numPages(3), cf.getPagesRead() - before);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DeadlockTest extends SimpleDbTestBase {
+    private static final int WAIT = 2000;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3 * perPage, null, null);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.getBufferPool();
+    }
+
+    /**
+     * Starts both grabbers and waits for them to finish: the deadlock must
+     * be detected and broken by aborting the younger transaction, tid2,
+     * after which tid1 gets its lock.
+     */
+    private void breaksDeadlock(TestUtil.LockGrabber lg1, TestUtil.LockGrabber lg2)
+        throws Exception {
+        lg1.start();
+        lg2.start();
+        lg2.join(WAIT);
+        lg1.join(WAIT);
+        assertTrue("grabbers still waiting", !lg1.isAlive() && !lg2.isAlive());
+        assertNull(lg1.getError());
+        assertTrue(lg1.acquired());
+        assertTrue(lg2.getError() instanceof TransactionAbortedException);
+        assertEquals(1, bp.getDeadlockDetector().getDeadlocks());
+    }
+
+    /**
+     * Each of two transactions reads a page and then tries to write the
+     * page the other read.
+     */
+    @Test public void testReadWriteDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        breaksDeadlock(new TestUtil.LockGrabber(tid1, p1, Permissions.READ_WRITE),
+                new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Each of two transactions writes a page and then tries to read the
+     * page the other wrote.
+     */
+    @Test public void testWriteWriteDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        breaksDeadlock(new TestUtil.LockGrabber(tid1, p1, Permissions.READ_ONLY),
+                new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY));
+    }
+
+    /**
+     * Two transactions that read a page both try to upgrade their locks.
+     */
+    @Test public void testUpgradeWriteDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+        breaksDeadlock(new TestUtil.LockGrabber(tid1, p0, Permissions.READ_WRITE),
+                new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE));
+    }
+
+    /**
+     * Three transactions each write a page and then try to write the next
+     * one's page.
+     */
+    @Test public void testThreeWayDeadlock() throws Exception {
+        TransactionId tid3 = new TransactionId();
+        PageId p2 = new HeapPageId(p0.getTableId(), 2);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        bp.getPage(tid3, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg1 = new TestUtil.LockGrabber(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg2 = new TestUtil.LockGrabber(tid2, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg3 = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_WRITE);
+        lg1.start();
+        lg2.start();
+        lg3.start();
+        lg3.join(WAIT);
+        lg2.join(WAIT);
+        assertTrue(lg3.getError() instanceof TransactionAbortedException);
+        assertTrue(lg2.acquired());
+        assertEquals(1, bp.getDeadlockDetector().getDeadlocks());
+        // tid1 still waits for tid2, which has not completed
+        assertTrue(lg1.isAlive());
+        bp.transactionComplete(tid2);
+        lg1.join(WAIT);
+        assertTrue(lg1.acquired());
+    }
+
+    /**
+     * With the FEWEST_LOCKS policy the transaction holding fewer locks is
+     * aborted, however old it is.
+     */
+    @Test public void testFewestLocksVictim() throws Exception {
+        bp.getDeadlockDetector().setVictimPolicy(DeadlockDetector.VictimPolicy.FEWEST_LOCKS);
+        PageId p2 = new HeapPageId(p0.getTableId(), 2);
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        bp.getPage(tid2, p2, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg1 = new TestUtil.LockGrabber(tid1, p1, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg2 = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        lg1.start();
+        lg2.start();
+        lg1.join(WAIT);
+        lg2.join(WAIT);
+        assertTrue(lg1.getError() instanceof TransactionAbortedException);
+        assertTrue(lg2.acquired());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockTest.class);
+    }
+}
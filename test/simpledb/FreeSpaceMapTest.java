@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Creates a table of three full pages.
+     */
+    @Before public void createTable() throws Exception {
+        int rows = 3 * (BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1));
+        hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        FreeSpaceMap.sidecar(hf.getFile()).deleteOnExit();
+        new File(hf.getFile().getPath() + ".zm").deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.findFree() over a large map.
+     */
+    @Test public void findFree() throws Exception {
+        File f = File.createTempFile("fsm", ".fsm");
+        f.delete();
+        f.deleteOnExit();
+        FreeSpaceMap fsm = new FreeSpaceMap(f, hf);
+        // without a sidecar every page may have free space
+        assertEquals(0, fsm.findFree());
+        for (int pg = 0; pg < 3; pg++)
+            fsm.update(pg, false);
+        assertEquals(-1, fsm.findFree());
+
+        fsm.update(1000000, true);
+        fsm.update(70000, true);
+        assertEquals(70000, fsm.findFree());
+        fsm.update(70000, false);
+        assertEquals(1000000, fsm.findFree());
+        fsm.update(5, true);
+        assertEquals(5, fsm.findFree());
+        assertFalse(fsm.isFree(6));
+        fsm.close();
+    }
+
+    /**
+     * Inserts fill the page a delete freed, including after the file is
+     * reopened.
+     */
+    @Test public void reuseAfterReopen() throws Exception {
+        assertEquals(3, hf.numPages());
+        // the first insert probes the full pages and appends a page
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(4, hf.numPages());
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        assertEquals(3, fsm.findFree());
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        assertTrue(fsm.isFree(0));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+
+        // a new HeapFile over the same data reads the sidecar
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(hf, "fsm");
+        tid = new TransactionId();
+        assertEquals(0, hf.getFreeSpaceMap().findFree());
+        assertFalse(hf.getFreeSpaceMap().isFree(1));
+
+        Tuple t = Utility.getHeapTuple(3, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(3, hf.getFreeSpaceMap().findFree());
+        assertEquals(4, hf.numPages());
+    }
+
+    /**
+     * Fills the map's sidecar: an insert probes the three full pages,
+     * appends a page and writes it.
+     */
+    private void recordFullPages() throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertEquals(3, hf.getFreeSpaceMap().findFree());
+        assertTrue(FreeSpaceMap.sidecar(hf.getFile()).exists());
+    }
+
+    /**
+     * A sidecar whose data file was changed behind its back is discarded
+     * when it is loaded, rather than calling an emptied page full.
+     */
+    @Test public void staleSidecarDiscarded() throws Exception {
+        recordFullPages();
+        hf.close();
+
+        File f = hf.getFile();
+        long modified = f.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.write(HeapPage.createEmptyPageData());
+        raf.close();
+        f.setLastModified(modified + 2000);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(hf, "fsm");
+        assertEquals(0, hf.getFreeSpaceMap().findFree());
+        assertFalse(FreeSpaceMap.sidecar(f).exists());
+    }
+
+    /** HeapFileEncoder deletes the sidecar of the table it writes. */
+    @Test public void encoderDiscardsSidecar() throws Exception {
+        recordFullPages();
+        hf.close();
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), hf.getFile(),
+                BufferPool.getPageSize(), 2);
+        assertFalse(FreeSpaceMap.sidecar(hf.getFile()).exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final long WAIT = 5000;
+
+    /** Commits a transaction once all the committers are ready. */
+    static class Committer extends Thread {
+        final Transaction t = new Transaction();
+        private final CyclicBarrier start;
+        Exception error;
+
+        Committer(CyclicBarrier start) {
+            this.start = start;
+            t.start();
+        }
+
+        public void run() {
+            try {
+                start.await();
+                t.commit();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Each commit on its own forces the log once.
+     */
+    @Test public void singleCommits() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (int i = 0; i < 3; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+            assertTrue(!log.isLive(t.getId()));
+        }
+        assertEquals(3, log.getCommitForces());
+    }
+
+    /**
+     * Concurrent commits that wait for each other are forced together,
+     * and all of them complete.
+     */
+    @Test public void groupsConcurrentCommits() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitDelay(200 * 1000);
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        Committer[] committers = new Committer[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            committers[i] = new Committer(start);
+            committers[i].start();
+        }
+        for (Committer c : committers) {
+            c.join(WAIT);
+            assertTrue(!c.isAlive());
+            if (c.error != null)
+                throw c.error;
+            assertTrue(!log.isLive(c.t.getId()));
+        }
+        assertTrue("commits were not grouped", log.getCommitForces() < THREADS);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
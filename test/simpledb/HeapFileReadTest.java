@@ -77,6 +77,71 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): the file should reopen transparently.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage before = (HeapPage) hf.readPage(pid);
+        hf.close();
+        HeapPage after = (HeapPage) hf.readPage(pid);
+        assertTrue(Arrays.equals(before.getPageData(), after.getPageData()));
+        // close twice is harmless
+        hf.close();
+        hf.close();
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() on threads racing close(), which
+     * closes the channel under their reads
+     */
+    @Test
+    public void readPageWhileClosing() throws Exception {
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final byte[] expected = hf.readPage(pid).getPageData();
+        final boolean[] ok = { true };
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        if (!Arrays.equals(expected, hf.readPage(pid).getPageData()))
+                            ok[0] = false;
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread r : readers) {
+            while (r.isAlive())
+                hf.close();
+            r.join();
+        }
+        assertTrue(ok[0]);
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        assertTrue(hf.isMemoryMapped());
+        assertTrue(Arrays.equals(expected, hf.readPage(pid).getPageData()));
+
+        // pages appended through the channel are visible to mapped reads
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        HeapPage page = new HeapPage(next, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        hf.writePage(page);
+        HeapPage reread = (HeapPage) hf.readPage(next);
+        assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+        assertTrue(Arrays.equals(page.getPageData(), reread.getPageData()));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
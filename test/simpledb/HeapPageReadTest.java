@@ -120,6 +120,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples were
+     * never decoded
+     */
+    @Test public void getPageDataUndecoded() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
+    /**
+     * Unit test for HeapPage.iterator() over a page with holes in it
+     */
+    @Test public void testIteratorSkipsEmptySlots() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+
+        it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            if (row == 1)
+                row++;
+            Tuple tup = it.next();
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(row, tup.getRecordId().tupleno());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+    }
+
     /**
      * JUnit suite target
      */
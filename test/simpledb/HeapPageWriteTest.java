@@ -1,9 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,29 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() / setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA;
+        assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+        // the before-image is the state prior to the first change
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+        // after setBeforeImage, it tracks the current contents until the
+        // next change
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.deleteTuple(page.iterator().next());
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,159 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+    private static final int POLL_INTERVAL = 100;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2 * perPage, null, null);
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        bp = Database.getBufferPool();
+    }
+
+    /**
+     * Starts a thread that tries to get page pid for tid with perm, and
+     * checks after POLL_INTERVAL whether it got it.
+     */
+    private TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid, Permissions perm,
+                                          boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(POLL_INTERVAL);
+        assertEquals(expected, t.acquired());
+        assertEquals(null, t.getError());
+        return t;
+    }
+
+    /** Two transactions may read the same page. */
+    @Test public void acquireReadLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid2, p0, Permissions.READ_ONLY, true);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    /** A writer waits for readers and readers wait for a writer. */
+    @Test public void acquireConflictingLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid2, p0, Permissions.READ_WRITE, false);
+
+        bp.getPage(tid1, p1, Permissions.READ_WRITE);
+        grabLock(tid2, p1, Permissions.READ_ONLY, false);
+    }
+
+    /** Locks on different pages do not conflict. */
+    @Test public void acquireWriteLocksOnTwoPages() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        grabLock(tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    /** The only reader of a page may upgrade its lock; one of two may not. */
+    @Test public void lockUpgrade() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grabLock(tid1, p0, Permissions.READ_WRITE, true);
+
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        grabLock(tid1, p1, Permissions.READ_WRITE, false);
+    }
+
+    /** A waiting transaction gets its lock once the holder releases it. */
+    @Test public void acquireAfterRelease() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t = grabLock(tid2, p0, Permissions.READ_WRITE, false);
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        t.join(10 * POLL_INTERVAL);
+        assertTrue(t.acquired());
+    }
+
+    /**
+     * A waiter that is interrupted gives up with TransactionAbortedException
+     * and keeps its interrupt status.
+     */
+    @Test public void interruptedWaitAborts() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        final Exception[] error = new Exception[1];
+        final boolean[] interrupted = new boolean[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        };
+        t.start();
+        Thread.sleep(POLL_INTERVAL);
+        t.interrupt();
+        t.join(10 * POLL_INTERVAL);
+        assertFalse(t.isAlive());
+        assertTrue(error[0] instanceof TransactionAbortedException);
+        assertTrue(interrupted[0]);
+        assertFalse(bp.holdsLock(tid2, p0));
+    }
+
+    /** Completing a transaction releases all of its locks. */
+    @Test public void transactionCompleteReleases() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.transactionComplete(tid1);
+        assertFalse(bp.holdsLock(tid1, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+        grabLock(tid2, p0, Permissions.READ_WRITE, true);
+    }
+
+    /**
+     * An aborted transaction's changes are discarded; a committed one's are
+     * written to disk.
+     */
+    @Test public void abortAndCommit() throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        byte[] before = page.getPageData();
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid1);
+        bp.transactionComplete(tid1, false);
+        HeapPage reread = (HeapPage) bp.getPage(tid2, p0, Permissions.READ_WRITE);
+        assertNotSame(page, reread);
+        assertTrue(Arrays.equals(before, reread.getPageData()));
+
+        reread.deleteTuple(reread.iterator().next());
+        reread.markDirty(true, tid2);
+        bp.transactionComplete(tid2, true);
+        assertEquals(null, reread.isDirty());
+        Page disk = Database.getCatalog().getDatabaseFile(p0.getTableId()).readPage(p0);
+        assertTrue(Arrays.equals(reread.getPageData(), disk.getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
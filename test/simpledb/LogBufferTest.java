@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogBufferTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private LogFile log;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, 2 * perPage, null, null);
+        log = Database.getLogFile();
+    }
+
+    /** @return page pgNo as it is on disk, with one tuple deleted */
+    private HeapPage changedPage(int pgNo) throws Exception {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        p.deleteTuple(p.iterator().next());
+        return p;
+    }
+
+    /**
+     * Records are buffered until the log is forced as far as they go, and
+     * forcing up to an LSN makes the log durable at least that far.
+     */
+    @Test public void forceUpToLsn() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long begin = log.getEndLsn();
+        HeapPage p = changedPage(0);
+        long lsn = log.logWrite(tid, p.getBeforeImage(), p);
+        assertEquals(lsn, log.getEndLsn());
+        assertTrue(lsn > begin);
+        assertTrue(log.getDurableLsn() < lsn);
+
+        log.forceUpTo(lsn);
+        assertTrue(log.getDurableLsn() >= lsn);
+        log.logCommit(tid);
+        assertTrue(log.getDurableLsn() >= log.getEndLsn());
+    }
+
+    /**
+     * A transaction whose records fill several buffers is rolled back from
+     * them, once they have been written out by the flusher.
+     */
+    @Test public void rollbackAcrossBuffers() throws Exception {
+        byte[][] before = new byte[2][];
+        for (int pg = 0; pg < 2; pg++)
+            before[pg] = hf.readPage(new HeapPageId(hf.getId(), pg)).getPageData();
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage p0 = changedPage(0);
+        int records = 3 * LogBuffer.BUFFER_SIZE / (2 * BufferPool.getPageSize()) + 1;
+        for (int i = 0; i < records; i++)
+            log.logWrite(tid, p0.getBeforeImage(), p0);
+        HeapPage p1 = changedPage(1);
+        log.forceUpTo(log.logWrite(tid, p1.getBeforeImage(), p1));
+        hf.writePage(p0);
+        hf.writePage(p1);
+
+        log.rollback(tid);
+        for (int pg = 0; pg < 2; pg++)
+            assertTrue(Arrays.equals(before[pg],
+                    hf.readPage(new HeapPageId(hf.getId(), pg)).getPageData()));
+    }
+
+    /**
+     * LSNs keep growing when a checkpoint truncates the log.
+     */
+    @Test public void lsnsSurviveTruncation() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        long end = log.getEndLsn();
+        log.logCheckpoint();
+        assertTrue(log.getEndLsn() >= end);
+        tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertTrue(log.getEndLsn() > end);
+        assertTrue(log.getDurableLsn() >= log.getEndLsn());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
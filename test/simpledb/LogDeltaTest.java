@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogDeltaTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private LogFile log;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, 3 * perPage, null, null);
+        log = Database.getLogFile();
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    private byte[] onDisk(int pgNo) {
+        return hf.readPage(pid(pgNo)).getPageData();
+    }
+
+    /** Deletes the next tuple of p and logs the change for tid. */
+    private long change(TransactionId tid, HeapPage p) throws Exception {
+        Iterator<Tuple> it = p.iterator();
+        p.deleteTuple(it.next());
+        return log.logWrite(tid, p.getBeforeImage(), p);
+    }
+
+    /**
+     * The first change to a page after a checkpoint is logged with full
+     * images, later ones as deltas a fraction of the size.
+     */
+    @Test public void deltaAfterFirstImage() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage p = (HeapPage) hf.readPage(pid(0));
+        long start = log.getEndLsn();
+        long image = change(tid, p);
+        long delta = change(tid, p);
+        assertTrue(image - start > 2 * BufferPool.getPageSize());
+        assertTrue(delta - image < BufferPool.getPageSize() / 10);
+
+        log.logCommit(tid);
+        log.logCheckpoint();
+        tid = new TransactionId();
+        log.logXactionBegin(tid);
+        start = log.getEndLsn();
+        assertTrue(change(tid, p) - start > 2 * BufferPool.getPageSize());
+    }
+
+    /**
+     * A transaction whose changes to a page were logged as a full image
+     * and then deltas, and written, is rolled back.
+     */
+    @Test public void rollbackDeltas() throws Exception {
+        byte[] before = onDisk(0);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage p = (HeapPage) hf.readPage(pid(0));
+        for (int i = 0; i < 3; i++) {
+            log.forceUpTo(change(tid, p));
+            hf.writePage(p);
+        }
+        assertTrue(!Arrays.equals(before, onDisk(0)));
+        log.rollback(tid);
+        assertTrue(Arrays.equals(before, onDisk(0)));
+    }
+
+    /**
+     * Recovery redoes the changes of committed transactions that were not
+     * written, and undoes those of aborted and unfinished ones that were,
+     * in log order.
+     */
+    @Test public void recoverDeltas() throws Exception {
+        byte[] before1 = onDisk(1);
+
+        // committed, never written
+        TransactionId committed = new TransactionId();
+        log.logXactionBegin(committed);
+        HeapPage p0 = (HeapPage) hf.readPage(pid(0));
+        change(committed, p0);
+        change(committed, p0);
+        log.logCommit(committed);
+
+        // unfinished, written
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        HeapPage p1 = (HeapPage) hf.readPage(pid(1));
+        change(loser, p1);
+        log.forceUpTo(change(loser, p1));
+        hf.writePage(p1);
+
+        // aborted, then changed again by a committed transaction
+        TransactionId aborted = new TransactionId();
+        log.logXactionBegin(aborted);
+        HeapPage p2 = (HeapPage) hf.readPage(pid(2));
+        change(aborted, p2);
+        log.forceUpTo(change(aborted, p2));
+        hf.writePage(p2);
+        log.logAbort(aborted);
+        TransactionId after = new TransactionId();
+        log.logXactionBegin(after);
+        p2 = (HeapPage) hf.readPage(pid(2));
+        change(after, p2);
+        log.logCommit(after);
+
+        new LogFile(log.logFile).recover();
+        assertTrue(Arrays.equals(p0.getPageData(), onDisk(0)));
+        assertTrue(Arrays.equals(before1, onDisk(1)));
+        assertTrue(Arrays.equals(p2.getPageData(), onDisk(2)));
+    }
+
+    /**
+     * Transactions that each insert a tuple log a fraction of a page each.
+     */
+    @Test public void insertLogVolume() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        int inserts = 100;
+        long start = log.getEndLsn();
+        for (int i = 0; i < inserts; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), small.getId(), Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+        long perInsert = (log.getEndLsn() - start) / inserts;
+        assertTrue("logged " + perInsert + " bytes per insert",
+                perInsert < BufferPool.getPageSize() / 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogDeltaTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogRecoveryTest extends SimpleDbTestBase {
+    private static final int PAGES = 16;
+
+    private HeapFile hf;
+    private LogFile log;
+    private HeapPage[] pages;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * perPage, null, null);
+        log = Database.getLogFile();
+        pages = new HeapPage[PAGES];
+        for (int pg = 0; pg < PAGES; pg++)
+            pages[pg] = read(pg);
+    }
+
+    private HeapPage read(int pgNo) {
+        return (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgNo));
+    }
+
+    /** Deletes a tuple of page pg for tid, and logs the change. */
+    private long change(TransactionId tid, int pg) throws Exception {
+        HeapPage p = pages[pg];
+        p.setBeforeImage();
+        p.deleteTuple(p.iterator().next());
+        return log.logWrite(tid, p.getBeforeImage(), p);
+    }
+
+    /**
+     * Transactions that commit without their pages being written, that
+     * abort after theirs were, and that never finish after theirs were,
+     * are recovered on several threads to the committed state of every
+     * page, and analysis counts the records and finds the losers.
+     */
+    @Test public void recoverInParallel() throws Exception {
+        Random rand = new Random(143);
+        for (int i = 0; i < 200; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            Set<Integer> touched = new HashSet<Integer>();
+            for (int c = 0; c < 3; c++) {
+                int pg = rand.nextInt(PAGES);
+                touched.add(pg);
+                change(tid, pg);
+            }
+            if (i % 5 == 4) {
+                for (int pg : touched)
+                    hf.writePage(pages[pg]);
+                log.logAbort(tid);
+                for (int pg : touched)
+                    pages[pg] = read(pg);
+            } else {
+                log.logCommit(tid);
+            }
+        }
+        byte[][] expected = new byte[PAGES][];
+        for (int pg = 0; pg < PAGES; pg++)
+            expected[pg] = pages[pg].getPageData();
+
+        Set<Long> losers = new HashSet<Long>();
+        for (int l = 0; l < 2; l++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            losers.add(tid.getId());
+            for (int pg = l; pg < PAGES; pg += 2) {
+                log.forceUpTo(change(tid, pg));
+                hf.writePage(pages[pg]);
+            }
+        }
+
+        LogFile recovered = new LogFile(log.logFile);
+        recovered.setRecoveryThreads(4);
+        recovered.recover();
+        for (int pg = 0; pg < PAGES; pg++)
+            assertTrue("page " + pg, Arrays.equals(expected[pg], read(pg).getPageData()));
+
+        LogRecovery recovery = recovered.getLastRecovery();
+        assertEquals(LogRecovery.Phase.DONE, recovery.getPhase());
+        assertEquals(4, recovery.getThreads());
+        assertEquals(losers, recovery.getLosers());
+        assertEquals(200 * 3 + PAGES, recovery.getChanges());
+        assertEquals(recovery.getChanges(), recovery.getChangesApplied());
+        assertEquals(PAGES, recovery.getPagesWritten());
+        // BEGIN and COMMIT or ABORT for each, and BEGIN for the losers
+        assertEquals(recovery.getChanges() + 200 * 2 + 2, recovery.getRecords());
+    }
+
+    /**
+     * A record cut short at the end of the log is dropped, and recovering
+     * again finds the losers already aborted.
+     */
+    @Test public void recoverTwice() throws Exception {
+        byte[] before = pages[0].getPageData();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.forceUpTo(change(tid, 0));
+        hf.writePage(pages[0]);
+        long end = log.logFile.length();
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile(log.logFile, "rw");
+        raf.setLength(end + 6);
+        raf.close();
+
+        LogFile recovered = new LogFile(log.logFile);
+        recovered.recover();
+        assertTrue(Arrays.equals(before, read(0).getPageData()));
+        assertEquals(1, recovered.getLastRecovery().getLosers().size());
+
+        recovered = new LogFile(log.logFile);
+        recovered.recover();
+        assertTrue(Arrays.equals(before, read(0).getPageData()));
+        assertEquals(0, recovered.getLastRecovery().getLosers().size());
+    }
+
+    /**
+     * A transaction whose page was written back early, logged, and then
+     * changed back to its before-image recovers to that image: its second
+     * record of the page restores the bytes its first one changed.
+     */
+    @Test public void revertAfterWriteBack() throws Exception {
+        HeapPage p = pages[0];
+        byte[] before = p.getPageData();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        p.setBeforeImage();
+        Tuple t = p.iterator().next();
+        p.deleteTuple(t);
+        // written back by the cleaner, say
+        log.forceUpTo(log.logWrite(tid, p.getBeforeImage(), p));
+        hf.writePage(p);
+        p.insertTuple(t);
+        log.logWrite(tid, p.getBeforeImage(), p);
+        log.logCommit(tid);
+        assertTrue(Arrays.equals(before, p.getPageData()));
+
+        LogFile recovered = new LogFile(log.logFile);
+        recovered.recover();
+        assertTrue(Arrays.equals(before, read(0).getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogRecoveryTest.class);
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    private static final long WAIT = 2000;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * perPage, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /** Deletes a tuple from each of the first n pages, for tid. */
+    private void dirtyPages(BufferPool pool, int n) throws Exception {
+        for (int pg = 0; pg < n; pg++) {
+            HeapPage page = (HeapPage) pool.getPage(tid, pid(pg), Permissions.READ_WRITE);
+            Tuple t = page.iterator().next();
+            page.deleteTuple(t);
+            page.markDirty(true, tid);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+    }
+
+    private byte[][] readFromDisk() {
+        byte[][] data = new byte[PAGES][];
+        for (int pg = 0; pg < PAGES; pg++)
+            data[pg] = hf.readPage(pid(pg)).getPageData();
+        return data;
+    }
+
+    private int numDirty(BufferPool pool, int n) throws Exception {
+        int dirty = 0;
+        for (int pg = 0; pg < n; pg++)
+            if (pool.getPage(tid, pid(pg), Permissions.READ_WRITE).isDirty() != null)
+                dirty++;
+        return dirty;
+    }
+
+    /**
+     * The cleaner writes dirty pages back until the target fraction of the
+     * frames is clean, and no further.
+     */
+    @Test public void cleansToTarget() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES);
+        pool.setCleanTarget(0.5);
+        dirtyPages(pool, PAGES);
+
+        long deadline = System.currentTimeMillis() + WAIT;
+        // pages are marked clean before they are written, and counted after
+        while ((numDirty(pool, PAGES) > PAGES / 2 || pool.getPagesCleaned() < PAGES / 2)
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(PageCleaner.INTERVAL);
+        assertEquals(PAGES / 2, numDirty(pool, PAGES));
+        assertEquals(PAGES / 2, pool.getPagesCleaned());
+
+        // the pages written back are the first ones of the file
+        byte[][] disk = readFromDisk();
+        for (int pg = 0; pg < PAGES / 2; pg++)
+            assertTrue(Arrays.equals(pool.getPage(tid, pid(pg), Permissions.READ_ONLY).getPageData(),
+                    disk[pg]));
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds: the pages are
+     * written back, logged, to make room, and the transaction commits.
+     */
+    @Test public void transactionLargerThanPool() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES / 4);
+        pool.setCleanTarget(0);
+        dirtyPages(pool, PAGES);
+        assertTrue(Database.getLogFile().isLive(tid));
+        pool.transactionComplete(tid, true);
+        assertTrue(!Database.getLogFile().isLive(tid));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Aborting a transaction some of whose pages were written back rolls
+     * them back on disk from the log.
+     */
+    @Test public void abortAfterSteal() throws Exception {
+        byte[][] before = readFromDisk();
+        BufferPool pool = Database.resetBufferPool(PAGES / 4);
+        dirtyPages(pool, PAGES);
+        pool.transactionComplete(tid, false);
+        assertTrue(!Database.getLogFile().isLive(tid));
+
+        byte[][] after = readFromDisk();
+        for (int pg = 0; pg < PAGES; pg++)
+            assertTrue(Arrays.equals(before[pg], after[pg]));
+    }
+
+    /** A HeapFile that checks each image of page 0 written is one of two. */
+    static class CheckingHeapFile extends HeapFile {
+        volatile byte[] m_full;
+        volatile byte[] m_empty;
+        final AtomicInteger m_written = new AtomicInteger();
+        final AtomicInteger m_torn = new AtomicInteger();
+
+        CheckingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        protected void writePageData(int pgNo, byte[] data) throws IOException {
+            if (pgNo == 0 && m_empty != null) {
+                m_written.incrementAndGet();
+                if (!Arrays.equals(data, m_full) && !Arrays.equals(data, m_empty))
+                    m_torn.incrementAndGet();
+            }
+            super.writePageData(pgNo, data);
+        }
+    }
+
+    /**
+     * A tuple that gives up the CPU whenever a field of it is read, so that
+     * a thread serializing the page it is on lets the page's transaction
+     * run in the middle.
+     */
+    static class YieldingTuple extends Tuple {
+        private static final long serialVersionUID = 1L;
+
+        YieldingTuple(Tuple t) {
+            super(t.getTupleDesc());
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                setField(i, t.getField(i));
+        }
+
+        public Field getField(int i) {
+            Thread.yield();
+            return super.getField(i);
+        }
+    }
+
+    /**
+     * A page its transaction keeps changing while the cleaner writes it
+     * back is only ever written as it was before or after a change: never
+     * half-changed, and the cleaner never fails reading a slot the
+     * transaction just emptied.
+     */
+    @Test public void writeBackWhileChanging() throws Throwable {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, PAGES * perPage, 1000, null, null);
+        f.deleteOnExit();
+        final CheckingHeapFile checked = new CheckingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(checked, "checked");
+        final BufferPool pool = Database.resetBufferPool(PAGES);
+        pool.setCleanTarget(1.0);
+
+        HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(checked.getId(), 0),
+                Permissions.READ_WRITE);
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+        byte[] empty = page.getPageData();
+        t = new YieldingTuple(t);
+        page.insertTuple(t);
+        checked.m_full = page.getPageData();
+        checked.m_empty = empty;
+
+        // the cleaner runs every PageCleaner.INTERVAL ms; clean it harder
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Throwable[] failure = new Throwable[1];
+        Thread cleaner = new Thread() {
+            public void run() {
+                try {
+                    while (!done.get())
+                        pool.clean();
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        cleaner.start();
+        try {
+            long deadline = System.currentTimeMillis() + WAIT;
+            while (checked.m_written.get() < 100 && failure[0] == null
+                    && System.currentTimeMillis() < deadline) {
+                page.deleteTuple(t);
+                page.markDirty(true, tid);
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+            }
+        } finally {
+            done.set(true);
+            cleaner.join();
+        }
+        if (failure[0] != null)
+            throw failure[0];
+        assertTrue(checked.m_written.get() > 0);
+        assertEquals(0, checked.m_torn.get());
+        pool.transactionComplete(tid, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCodecsTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private LogFile log;
+
+    /** A page type logged under a tag of its own. */
+    static class TaggedPage extends HeapPage {
+        TaggedPage(HeapPageId id, byte[] data) throws IOException {
+            super(id, data);
+        }
+    }
+
+    /** A page type that is never registered. */
+    static class UntaggedPage extends HeapPage {
+        UntaggedPage(HeapPageId id, byte[] data) throws IOException {
+            super(id, data);
+        }
+    }
+
+    static {
+        PageCodecs.registerPage((short) 100, TaggedPage.class, new PageCodecs.PageCodec() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new TaggedPage((HeapPageId) pid, data);
+            }
+        });
+    }
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 100, null, null);
+        log = Database.getLogFile();
+    }
+
+    /** @return p written by writePageData and read back by readPageData */
+    private Page roundTrip(Page p) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        log.writePageData(new DataOutputStream(bytes), p);
+        return log.readPageData(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * A HeapPage comes back from the log as a HeapPage of the same id and
+     * data, logged with two short tags in place of class names.
+     */
+    @Test public void heapPageRoundTrip() throws Exception {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        Page q = roundTrip(p);
+        assertEquals(HeapPage.class, q.getClass());
+        assertEquals(p.getId(), q.getId());
+        assertTrue(Arrays.equals(p.getPageData(), q.getPageData()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        log.writePageData(new DataOutputStream(bytes), p);
+        int ids = p.getId().serialize().length;
+        assertEquals(2 * LogFile.SHORT_SIZE + (ids + 2) * LogFile.INT_SIZE
+                + BufferPool.getPageSize(), bytes.size());
+    }
+
+    /** A page of a registered type comes back as that type. */
+    @Test public void registeredPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        TaggedPage p = new TaggedPage(pid, hf.readPage(pid).getPageData());
+        Page q = roundTrip(p);
+        assertEquals(TaggedPage.class, q.getClass());
+        assertTrue(Arrays.equals(p.getPageData(), q.getPageData()));
+    }
+
+    /** A page of a type with no codec cannot be logged. */
+    @Test public void unregisteredPage() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        try {
+            roundTrip(new UntaggedPage(pid, hf.readPage(pid).getPageData()));
+            fail("logged a page with no codec");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /** A tag or class can be registered only once. */
+    @Test(expected=IllegalArgumentException.class) public void duplicateTag() {
+        PageCodecs.registerPage(PageCodecs.HEAP_PAGE, UntaggedPage.class, new PageCodecs.PageCodec() {
+            public Page decode(PageId pid, byte[] data) throws IOException {
+                return new UntaggedPage((HeapPageId) pid, data);
+            }
+        });
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecsTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    /**
+     * Pages of different tables whose hash codes collide have different
+     * keys, and are different pages.
+     */
+    @Test public void distinctTables() throws Exception {
+        PageId a = new HeapPageId(0, 20);
+        PageId b = new HeapPageId(2, 1);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(b));
+        assertFalse(PageTable.key(a) == PageTable.key(b));
+
+        PageTable table = new PageTable(2);
+        table.put(PageTable.key(a), 0);
+        table.put(PageTable.key(b), 1);
+        assertEquals(0, table.get(PageTable.key(a)));
+        assertEquals(1, table.get(PageTable.key(b)));
+        assertEquals(-1, table.get(PageTable.key(new HeapPageId(2, 20))));
+    }
+
+    /**
+     * Random puts and removes on a full table agree with a HashMap, so
+     * removing entries from the middle of probe sequences loses nothing.
+     */
+    @Test public void matchesHashMap() {
+        int entries = 64;
+        PageTable table = new PageTable(entries);
+        Map<Long,Integer> expected = new HashMap<Long,Integer>();
+        Random r = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            // few tables and pages, so keys are reused and probes collide
+            long key = PageTable.key(new HeapPageId(r.nextInt(3) - 1, r.nextInt(100)));
+            if (expected.size() < entries && r.nextBoolean()) {
+                table.put(key, i);
+                expected.put(key, i);
+            } else {
+                table.remove(key);
+                expected.remove(key);
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        for (int t = -1; t <= 1; t++) {
+            for (int pg = 0; pg < 100; pg++) {
+                long key = PageTable.key(new HeapPageId(t, pg));
+                Integer frame = expected.get(key);
+                assertEquals(frame == null ? -1 : frame.intValue(), table.get(key));
+            }
+        }
+    }
+
+    /** A table of empty pages, with the given table id. */
+    static class EmptyFile extends TestUtil.SkeletonFile {
+        EmptyFile(int tableId) {
+            super(tableId, Utility.getTupleDesc(1));
+        }
+
+        public Page readPage(PageId pid) {
+            try {
+                return new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * The BufferPool keeps pages of tables whose page ids hash alike apart.
+     */
+    @Test public void bufferPoolKeepsTablesApart() throws Exception {
+        Database.getCatalog().addTable(new EmptyFile(0), "t0");
+        Database.getCatalog().addTable(new EmptyFile(2), "t2");
+        TransactionId tid = new TransactionId();
+        Page a = Database.getBufferPool().getPage(tid, new HeapPageId(0, 20), Permissions.READ_ONLY);
+        Page b = Database.getBufferPool().getPage(tid, new HeapPageId(2, 1), Permissions.READ_ONLY);
+        assertNotSame(a, b);
+        assertEquals(2, b.getId().getTableId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    static final ReplacementPolicy.Evictable ALL = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(int frame) {
+            return true;
+        }
+    };
+
+    static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy(4);
+        for (int f = 0; f < 4; f++)
+            clock.admit(f, pid(f));
+        clock.touch(0);
+        clock.touch(2);
+        assertEquals(1, clock.victim(ALL));
+        assertEquals(3, clock.victim(ALL));
+        // 0 and 2 lost their bits on the first sweep
+        assertEquals(0, clock.victim(ALL));
+        clock.admit(1, pid(4));
+        clock.touch(1);
+        assertEquals(2, clock.victim(ALL));
+        assertEquals(1, clock.victim(ALL));
+        assertEquals(-1, clock.victim(ALL));
+    }
+
+    /**
+     * Frames that may not be evicted are skipped.
+     */
+    @Test public void clockSkipsPinned() {
+        ClockPolicy clock = new ClockPolicy(3);
+        for (int f = 0; f < 3; f++)
+            clock.admit(f, pid(f));
+        clock.remove(1);
+        ReplacementPolicy.Evictable notZero = new ReplacementPolicy.Evictable() {
+            public boolean canEvict(int frame) {
+                return frame != 0;
+            }
+        };
+        assertEquals(2, clock.victim(notZero));
+        assertEquals(-1, clock.victim(notZero));
+    }
+
+    /**
+     * A stream of pages read once never evicts the pages in use.
+     */
+    private void scanResistant(ReplacementPolicy policy, int frames) {
+        int hot = frames / 2;
+        for (int f = 0; f < frames; f++)
+            policy.admit(f, pid(f));
+        for (int i = 0; i < 20 * frames; i++) {
+            for (int f = 0; f < hot; f++)
+                policy.touch(f);
+            int victim = policy.victim(ALL);
+            assertTrue("evicted hot frame " + victim, victim >= hot);
+            policy.admit(victim, pid(frames + i));
+        }
+    }
+
+    @Test public void twoQScanResistant() {
+        scanResistant(new TwoQPolicy(16), 16);
+    }
+
+    @Test public void arcScanResistant() {
+        scanResistant(new ArcPolicy(16), 16);
+    }
+
+    /**
+     * A page read again soon after 2Q evicted it goes to the main queue,
+     * and is not evicted ahead of pages read once.
+     */
+    @Test public void twoQGhostHit() {
+        TwoQPolicy twoQ = new TwoQPolicy(4);
+        for (int f = 0; f < 4; f++)
+            twoQ.admit(f, pid(f));
+        assertEquals(0, twoQ.victim(ALL));
+        twoQ.admit(0, pid(0));      // in A1out: goes to Am
+        assertEquals(1, twoQ.victim(ALL));
+        twoQ.admit(1, pid(5));
+        assertEquals(2, twoQ.victim(ALL));
+    }
+
+    /**
+     * The first touch of a page read ahead is its first use, so only a
+     * second one saves it from eviction.
+     */
+    private void prefetched(ReplacementPolicy policy) {
+        for (int f = 0; f < 4; f++)
+            policy.admitPrefetched(f, pid(f));
+        for (int f = 0; f < 4; f++)
+            policy.touch(f);
+        policy.touch(2);
+        int victim = policy.victim(ALL);
+        assertTrue("evicted the page used twice", victim != 2);
+        assertEquals(2, policy.hottestFirst()[0]);
+    }
+
+    @Test public void twoQPrefetched() {
+        prefetched(new TwoQPolicy(4));
+    }
+
+    @Test public void arcPrefetched() {
+        prefetched(new ArcPolicy(4));
+    }
+
+    /**
+     * ARC grows the target size of T1 after a miss on a page recently
+     * evicted from it.
+     */
+    @Test public void arcAdapts() {
+        ArcPolicy arc = new ArcPolicy(4);
+        for (int f = 0; f < 4; f++)
+            arc.admit(f, pid(f));
+        assertEquals(0, arc.getTarget());
+        assertEquals(0, arc.victim(ALL));
+        arc.admit(0, pid(0));
+        assertEquals(1, arc.getTarget());
+    }
+
+    /**
+     * A policy ranks the page it would evict next last, and the page
+     * referenced since it was admitted first.
+     */
+    private void hottestFirst(ReplacementPolicy policy) {
+        for (int f = 0; f < 4; f++)
+            policy.admit(f, pid(f));
+        policy.touch(2);
+        int[] hot = policy.hottestFirst();
+        assertEquals(4, hot.length);
+        assertEquals(2, hot[0]);
+        assertEquals(hot[3], policy.victim(ALL));
+        assertEquals(3, policy.hottestFirst().length);
+    }
+
+    @Test public void clockHottestFirst() {
+        hottestFirst(new ClockPolicy(4));
+    }
+
+    @Test public void twoQHottestFirst() {
+        hottestFirst(new TwoQPolicy(4));
+    }
+
+    @Test public void arcHottestFirst() {
+        hottestFirst(new ArcPolicy(4));
+    }
+
+    /**
+     * Hits setting reference bits while a policy ranks its frames do not
+     * make it rank one frame twice and another not at all.
+     */
+    private void hottestFirstWhileTouched(final ReplacementPolicy policy) throws Exception {
+        final int frames = 64;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread toucher = new Thread() {
+            public void run() {
+                while (!done.get())
+                    for (int f = 0; f < frames; f++)
+                        policy.touch(f);
+            }
+        };
+        toucher.start();
+        try {
+            for (int round = 0; round < 2000; round++) {
+                for (int f = 0; f < frames; f++) {
+                    policy.remove(f);
+                    policy.admit(f, pid(round * frames + f));
+                }
+                int[] hot = policy.hottestFirst();
+                Arrays.sort(hot);
+                for (int f = 0; f < frames; f++)
+                    assertEquals(f, hot[f]);
+            }
+        } finally {
+            done.set(true);
+            toucher.join();
+        }
+    }
+
+    @Test public void clockHottestFirstWhileTouched() throws Exception {
+        hottestFirstWhileTouched(new ClockPolicy(64));
+    }
+
+    @Test public void twoQHottestFirstWhileTouched() throws Exception {
+        hottestFirstWhileTouched(new TwoQPolicy(64));
+    }
+
+    @Test public void arcHottestFirstWhileTouched() throws Exception {
+        hottestFirstWhileTouched(new ArcPolicy(64));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
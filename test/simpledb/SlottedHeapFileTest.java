@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+
+    private TupleDesc td;
+    private File text;
+    private File slottedData;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                           new String[] { "id", "name" });
+        text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < ROWS; i++)
+            pw.println(i + "," + name(i));
+        pw.close();
+
+        slottedData = File.createTempFile("slotted", ".dat");
+        slottedData.deleteOnExit();
+        HeapFileEncoder.convertSlotted(text, slottedData, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static String name(int i) {
+        return "n" + (i * 7919 % 100000);
+    }
+
+    private ArrayList<Tuple> scan(DbFile f) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertSlotted() and scanning the
+     * result with a SlottedHeapFile.
+     */
+    @Test public void convertAndScan() throws Exception {
+        SlottedHeapFile sf = new SlottedHeapFile(slottedData, td);
+        Database.getCatalog().addTable(sf, "slotted");
+
+        ArrayList<Tuple> tuples = scan(sf);
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals(new StringField(name(i), Type.STRING_LEN), tuples.get(i).getField(1));
+        }
+
+        // the same table as fixed-size HeapPages takes many more pages
+        File heapData = File.createTempFile("heap", ".dat");
+        heapData.deleteOnExit();
+        HeapFileEncoder.convert(text, heapData, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        HeapFile hf = new HeapFile(heapData, td);
+        assertTrue(sf.numPages() * 5 < hf.numPages());
+    }
+
+    /**
+     * Unit test for SlottedHeapFile.insertTuple() and deleteTuple()
+     */
+    @Test public void insertAndDelete() throws Exception {
+        SlottedHeapFile sf = new SlottedHeapFile(slottedData, td);
+        Database.getCatalog().addTable(sf, "slotted");
+        int pages = sf.numPages();
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("inserted", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        Database.getBufferPool().flushAllPages();
+
+        ArrayList<Tuple> tuples = scan(sf);
+        assertEquals(ROWS + 1, tuples.size());
+        // the last page of the converted file has room for the tuple
+        assertEquals(pages, sf.numPages());
+        Tuple last = tuples.get(ROWS);
+        assertEquals(new StringField("inserted", Type.STRING_LEN), last.getField(1));
+
+        Database.getBufferPool().deleteTuple(tid, tuples.get(0));
+        Database.getBufferPool().deleteTuple(tid, last);
+        Database.getBufferPool().flushAllPages();
+        tuples = scan(sf);
+        assertEquals(ROWS - 1, tuples.size());
+        assertEquals(new IntField(1), tuples.get(0).getField(0));
+    }
+
+    /**
+     * Unit test for the <tt>slotted</tt> option of Catalog.loadSchema()
+     */
+    @Test public void loadSchema() throws Exception {
+        File dir = slottedData.getParentFile();
+        String name = slottedData.getName().replace(".dat", "");
+        File schema = File.createTempFile("catalog", ".txt", dir);
+        schema.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(schema));
+        pw.println(name + " (id int pk, name string) slotted");
+        pw.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof SlottedHeapFile);
+        assertEquals(ROWS, scan(f).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
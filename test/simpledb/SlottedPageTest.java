@@ -0,0 +1,188 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+        return t;
+    }
+
+    /** Inserts tuples 0, 1, ... until the page is full; returns how many fit. */
+    private int fill(SlottedPage page) throws Exception {
+        int n = 0;
+        while (page.fits(makeTuple(n)))
+            page.insertTuple(makeTuple(n++));
+        return n;
+    }
+
+    private HashMap<Integer, Tuple> contents(SlottedPage page) {
+        HashMap<Integer, Tuple> m = new HashMap<Integer, Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            m.put(((IntField) t.getField(0)).getValue(), t);
+        }
+        return m;
+    }
+
+    /**
+     * Unit test for an empty SlottedPage
+     */
+    @Test public void emptyPage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, page.getNumSlots());
+        assertFalse(page.iterator().hasNext());
+        assertTrue(page.hasFreeSpace());
+        assertEquals(BufferPool.getPageSize() - SlottedPage.HEADER_SIZE, page.getFreeSpace());
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple() and iterator(): short strings
+     * take less space than in a HeapPage, and the page round-trips through
+     * getPageData().
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int n = fill(page);
+
+        // a HeapPage only holds 30 of these
+        assertTrue(n > 4 * (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+        assertFalse(page.hasFreeSpace());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertTrue(Arrays.equals(page.getPageData(), copy.getPageData()));
+        HashMap<Integer, Tuple> m = contents(copy);
+        assertEquals(n, m.size());
+        for (int i = 0; i < n; i++) {
+            Tuple t = m.get(i);
+            assertTrue(TestUtil.compareTuples(makeTuple(i), t));
+            assertEquals(copy.getId(), t.getRecordId().getPageId());
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+
+        // now, the page should be full.
+        try {
+            page.insertTuple(makeTuple(n));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Unit test for SlottedPage.deleteTuple(): freed space is reused, and the
+     * tuples left on the page keep their slots.
+     */
+    @Test public void deleteTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int n = fill(page);
+
+        ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                deleted.add(t);
+        }
+        for (Tuple t : deleted)
+            page.deleteTuple(t);
+
+        // a deleted tuple is no longer on the page
+        try {
+            page.deleteTuple(deleted.get(deleted.size() - 1));
+            throw new Exception("tuple already deleted; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        // refill the page with longer tuples, which forces it to compact
+        int added = 0;
+        while (true) {
+            Tuple t = makeTuple(1000000 + added);
+            if (!page.fits(t))
+                break;
+            page.insertTuple(t);
+            added++;
+        }
+        assertTrue(added > 0);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        HashMap<Integer, Tuple> m = contents(copy);
+        assertEquals(n - deleted.size() + added, m.size());
+        for (int i = 1; i < n; i += 2) {
+            assertTrue(TestUtil.compareTuples(makeTuple(i), m.get(i)));
+            assertEquals(i, m.get(i).getRecordId().tupleno());
+        }
+        for (int i = 0; i < added; i++)
+            assertTrue(m.containsKey(1000000 + i));
+    }
+
+    /**
+     * Unit test for SlottedPage.deleteTuple() with false tuples
+     */
+    @Test(expected=DbException.class)
+        public void deleteNonexistentTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        fill(page);
+        Tuple t = makeTuple(0);
+        t.setRecordId(new RecordId(new HeapPageId(-1, 5), 0));
+        page.deleteTuple(t);
+    }
+
+    /**
+     * Unit test for SlottedPage.getBeforeImage() / setBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] original = SlottedPage.createEmptyPageData();
+        SlottedPage page = new SlottedPage(pid, original);
+        page.insertTuple(makeTuple(1));
+        page.insertTuple(makeTuple(2));
+        assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        page.deleteTuple(page.iterator().next());
+        assertTrue(Arrays.equals(committed, page.getBeforeImage().getPageData()));
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
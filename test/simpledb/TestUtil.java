@@ -247,6 +247,9 @@ public class TestUtil {
 		public TupleDesc getTupleDesc() {			
 			return td;
 		}
+
+		public void close() {
+		}
     }
 
     /**
@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TypeTest extends SimpleDbTestBase {
+
+    private static byte[] streamBytes(Field f) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    /**
+     * Type.serialize(Field, ByteBuffer, int) must write exactly what
+     * Field.serialize(DataOutputStream) writes, and parse must read it back.
+     */
+    private void roundTrip(Type t, Field f, ByteBuffer buf) throws Exception {
+        int off = 7;
+        t.serialize(f, buf, off);
+        assertEquals(0, buf.position());
+
+        byte[] actual = new byte[t.getLen()];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(off);
+        dup.get(actual);
+        assertArrayEquals(streamBytes(f), actual);
+        assertEquals(f, t.parse(buf, off));
+    }
+
+    /**
+     * Unit test for Type.parse(ByteBuffer, int) and
+     * Type.serialize(Field, ByteBuffer, int)
+     */
+    @Test public void bufferCodec() throws Exception {
+        for (ByteBuffer buf : new ByteBuffer[] {
+                ByteBuffer.allocate(512), ByteBuffer.allocateDirect(512) }) {
+            // dirty the buffer so padding must be written explicitly
+            for (int i = 0; i < buf.capacity(); i++)
+                buf.put(i, (byte) 0x5a);
+
+            roundTrip(Type.INT_TYPE, new IntField(-123456), buf);
+            roundTrip(Type.INT_TYPE, new IntField(Integer.MAX_VALUE), buf);
+            roundTrip(Type.STRING_TYPE, new StringField("", Type.STRING_LEN), buf);
+            roundTrip(Type.STRING_TYPE, new StringField("hello", Type.STRING_LEN), buf);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TypeTest.class);
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class WarmStartTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+    private static final long WAIT = 2000;
+
+    private HeapFile hf;
+    private File saved;
+
+    @Before public void createTable() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * perPage, null, null);
+        saved = File.createTempFile("hotpages", null);
+        saved.deleteOnExit();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /** Reads pages first to last-1 of the table into pool. */
+    private void readPages(BufferPool pool, int first, int last) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int pg = first; pg < last; pg++)
+            pool.getPage(tid, pid(pg), Permissions.READ_ONLY);
+        pool.transactionComplete(tid);
+    }
+
+    private WarmStart restart(int pages) throws Exception {
+        BufferPool pool = Database.resetBufferPool(pages, ReplacementPolicy.Kind.CLOCK, 1);
+        WarmStart ws = pool.warmStart(saved);
+        assertTrue(ws.await(WAIT));
+        return ws;
+    }
+
+    /**
+     * The pages a pool held when it was saved are loaded back into a new
+     * pool.
+     */
+    @Test public void reloadsPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES, ReplacementPolicy.Kind.CLOCK, 1);
+        readPages(pool, 0, PAGES);
+        pool.saveHotPages(saved);
+
+        WarmStart ws = restart(PAGES);
+        assertEquals(PAGES, ws.getPagesLoaded());
+        assertTrue(!ws.stoppedEarly());
+        Set<PageId> expected = new HashSet<PageId>();
+        for (int pg = 0; pg < PAGES; pg++)
+            expected.add(pid(pg));
+        assertEquals(expected, new HashSet<PageId>(Database.getBufferPool().hotPages()));
+    }
+
+    /**
+     * A smaller pool is loaded with the most recently used pages only.
+     */
+    @Test public void loadsHottestPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES, ReplacementPolicy.Kind.CLOCK, 1);
+        readPages(pool, 0, PAGES);
+        readPages(pool, PAGES / 2, PAGES / 2 + PAGES / 4);
+        pool.saveHotPages(saved);
+
+        WarmStart ws = restart(PAGES / 4);
+        assertEquals(PAGES / 4, ws.getPagesLoaded());
+        Set<PageId> expected = new HashSet<PageId>();
+        for (int pg = PAGES / 2; pg < PAGES / 2 + PAGES / 4; pg++)
+            expected.add(pid(pg));
+        assertEquals(expected, new HashSet<PageId>(Database.getBufferPool().hotPages()));
+    }
+
+    /**
+     * No pages are loaded of a table that has changed since they were
+     * saved.
+     */
+    @Test public void skipsChangedTable() throws Exception {
+        BufferPool pool = Database.resetBufferPool(PAGES, ReplacementPolicy.Kind.CLOCK, 1);
+        readPages(pool, 0, PAGES);
+        pool.saveHotPages(saved);
+
+        RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw");
+        raf.setLength(raf.length() + BufferPool.getPageSize());
+        raf.close();
+        WarmStart ws = restart(PAGES);
+        assertEquals(0, ws.getPagesLoaded());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmStartTest.class);
+    }
+}
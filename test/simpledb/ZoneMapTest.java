@@ -0,0 +1,240 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Creates a table clustered on its first column: row i is (i, i % 7).
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "zones");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private Filter filter(int field, Predicate.Op op, int value) {
+        return new Filter(new Predicate(field, op, new IntField(value)),
+                          new SeqScan(tid, hf.getId(), "z"));
+    }
+
+    /**
+     * A Filter over a SeqScan skips the pages outside the range of the
+     * predicate once their zones are known.
+     */
+    @Test public void filterSkipsPages() throws Exception {
+        // the first scan learns the zones of the pages it reads
+        assertEquals(10, count(filter(0, Predicate.Op.LESS_THAN, 10)));
+        assertEquals(0, hf.getPagesSkipped());
+
+        long before = hf.getPagesSkipped();
+        assertEquals(10, count(filter(0, Predicate.Op.LESS_THAN, 10)));
+        assertEquals(hf.numPages() - 1, hf.getPagesSkipped() - before);
+
+        before = hf.getPagesSkipped();
+        assertEquals(1, count(filter(0, Predicate.Op.EQUALS, ROWS / 2)));
+        assertEquals(hf.numPages() - 1, hf.getPagesSkipped() - before);
+
+        // a predicate every page may satisfy skips nothing
+        before = hf.getPagesSkipped();
+        assertEquals(ROWS / 7 + 1, count(filter(1, Predicate.Op.EQUALS, 0)));
+        assertEquals(0, hf.getPagesSkipped() - before);
+
+        // chained filters push both predicates down
+        before = hf.getPagesSkipped();
+        Filter both = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10)),
+                                 filter(1, Predicate.Op.EQUALS, 0));
+        assertEquals(2, count(both));
+        assertEquals(hf.numPages() - 1, hf.getPagesSkipped() - before);
+    }
+
+    /**
+     * Zones survive reopening the file, and inserted tuples widen them.
+     */
+    @Test public void persistAndInsert() throws Exception {
+        count(new SeqScan(tid, hf.getId(), "z"));
+        DbFileIterator it = hf.iterator(tid, Collections.singletonList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0))));
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+
+        // a new HeapFile over the same data reads the sidecar
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(hf, "zones");
+        tid = new TransactionId();
+        List<Predicate> preds = Collections.singletonList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)));
+        for (int pg = 0; pg < hf.numPages(); pg++)
+            assertFalse(hf.getZoneMap().mayMatch(pg, preds));
+        assertEquals(0, count(filter(0, Predicate.Op.LESS_THAN, 0)));
+        assertEquals(hf.numPages(), hf.getPagesSkipped());
+
+        // an insert widens the zone of the page it goes to
+        Tuple t = Utility.getHeapTuple(new int[] { -5, 3 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(filter(0, Predicate.Op.LESS_THAN, 0)));
+
+        // and writing the page records its exact zone
+        Database.getBufferPool().flushAllPages();
+        int pg = t.getRecordId().getPageId().pageNumber();
+        assertTrue(hf.getZoneMap().mayMatch(pg, preds));
+        assertEquals(1, count(filter(0, Predicate.Op.LESS_THAN, 0)));
+    }
+
+    /** Scans the whole table with a predicate, so that every zone is learnt. */
+    private void learnZones() throws Exception {
+        DbFileIterator it = hf.iterator(tid, Collections.singletonList(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0))));
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A sidecar left behind by a table whose data file was rewritten other
+     * than through its HeapFile is discarded, rather than used to skip
+     * pages that now hold matching tuples.
+     */
+    @Test public void staleSidecarDiscarded() throws Exception {
+        learnZones();
+        hf.close();
+
+        HeapPage p = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; i++)
+            p.insertTuple(Utility.getHeapTuple(new int[] { -1, 0 }));
+        File f = hf.getFile();
+        long modified = f.lastModified();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.write(p.getPageData());
+        raf.close();
+        f.setLastModified(modified + 2000);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = new HeapFile(f, hf.getTupleDesc());
+        Database.getCatalog().addTable(hf, "zones");
+        assertEquals(3, count(filter(0, Predicate.Op.LESS_THAN, 0)));
+        assertEquals(0, hf.getPagesSkipped());
+    }
+
+    /** HeapFileEncoder deletes the sidecar of the table it writes. */
+    @Test public void encoderDiscardsSidecar() throws Exception {
+        learnZones();
+        File zm = ZoneMap.sidecar(hf.getFile());
+        assertTrue(zm.exists());
+        hf.close();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFileEncoder.convert(tuples, hf.getFile(), BufferPool.getPageSize(), 2);
+        assertFalse(zm.exists());
+    }
+
+    /**
+     * The pages a scan skips are S-locked, as the pages it reads are, so
+     * that no other transaction can change them before the scan's
+     * transaction completes.
+     */
+    @Test public void skippedPagesLocked() throws Exception {
+        learnZones();
+        assertEquals(1, count(filter(0, Predicate.Op.EQUALS, ROWS / 2)));
+        assertEquals(hf.numPages() - 1, hf.getPagesSkipped());
+        for (int pg = 0; pg < hf.numPages(); pg++)
+            assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pg)));
+    }
+
+    /**
+     * Unit test for the STRING_TYPE prefix ranges
+     */
+    @Test public void stringPrefixes() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        File zm = new File(f.getPath() + ".zm");
+        zm.deleteOnExit();
+        HeapFile strings = new HeapFile(f, td);
+        Database.getCatalog().addTable(strings, "strings");
+        String[] values = { "apple", "applesauce-extra-long", "banana" };
+        for (String s : values) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+        }
+        Database.getBufferPool().flushAllPages();
+
+        ZoneMap zones = new ZoneMap(zm, f, td);
+        assertTrue(zones.mayMatch(0, pred(Predicate.Op.EQUALS, "applesauce-extra-long")));
+        assertTrue(zones.mayMatch(0, pred(Predicate.Op.EQUALS, "applesauce-other")));
+        assertFalse(zones.mayMatch(0, pred(Predicate.Op.EQUALS, "aardvark")));
+        assertFalse(zones.mayMatch(0, pred(Predicate.Op.EQUALS, "cherry")));
+        assertFalse(zones.mayMatch(0, pred(Predicate.Op.GREATER_THAN, "c")));
+        assertTrue(zones.mayMatch(0, pred(Predicate.Op.GREATER_THAN, "b")));
+        assertFalse(zones.mayMatch(0, pred(Predicate.Op.LESS_THAN, "a")));
+        assertTrue(zones.mayMatch(0, pred(Predicate.Op.LIKE, "zzz")));
+        strings.close();
+    }
+
+    private static List<Predicate> pred(Predicate.Op op, String s) {
+        return Collections.singletonList(new Predicate(0, op, new StringField(s, Type.STRING_LEN)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import simpledb.*;
+
+/**
+ * Measures BufferPool.getPage throughput with 1, 2, 4, ... threads, for a
+ * pool of one partition and for the default number of partitions.  Each
+ * thread requests random pages of a working set twice the size of the pool,
+ * so about half the requests miss and take a partition latch to evict a
+ * page and read another (a tiny in-memory page, so the benchmark measures
+ * the pool rather than the disk).
+ * <p>
+ * Usage: java simpledb.bench.BufferPoolConcurrencyBenchmark [frames]
+ *   [requests per thread] [max threads] [partitions]
+ */
+public class BufferPoolConcurrencyBenchmark {
+
+    static double requestsPerSecond(final BufferPool pool, final int workingSet,
+                                    int threads, final int requests) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    Random r = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < requests; i++)
+                            pool.getPage(tid, new HeapPageId(BufferPoolHitBenchmark.TABLE_ID,
+                                    r.nextInt(workingSet)), Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        return (double) threads * requests / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                : 2 * Runtime.getRuntime().availableProcessors();
+
+        Database.getCatalog().addTable(new BufferPoolHitBenchmark.TinyFile(), "tiny");
+        int partitions = args.length > 3 ? Integer.parseInt(args[3])
+                : BufferPool.defaultPartitions(frames);
+        System.out.println("BufferPoolConcurrencyBenchmark: " + frames + " frames, "
+                + Runtime.getRuntime().availableProcessors() + " processors, "
+                + requests + " requests per thread");
+        // warm up the JIT on both configurations
+        requestsPerSecond(new BufferPool(frames, ReplacementPolicy.Kind.CLOCK, 1), 2 * frames, 1, requests);
+        requestsPerSecond(new BufferPool(frames, ReplacementPolicy.Kind.CLOCK, partitions), 2 * frames, 1, requests);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double one = requestsPerSecond(new BufferPool(frames, ReplacementPolicy.Kind.CLOCK, 1),
+                    2 * frames, threads, requests);
+            double many = requestsPerSecond(new BufferPool(frames, ReplacementPolicy.Kind.CLOCK, partitions),
+                    2 * frames, threads, requests);
+            System.out.printf("%3d threads: 1 partition %10.0f req/s, %d partitions %10.0f req/s (%.2fx)%n",
+                    threads, one, partitions, many, many / one);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of a BufferPool cache hit at different pool sizes.
+ * Each pool is filled with tiny in-memory pages, so even the largest pool
+ * fits in a small heap, and then getPage is called on random resident
+ * pages: first on a hot set of {@link #HOT} pages spread over the pool,
+ * then on all of them.  With an O(1) replacement policy the cost of a hot
+ * hit does not grow with the number of frames; hits on all pages of a large
+ * pool also pay for CPU cache misses on the page table and frames.  The
+ * bytes allocated per hit are reported too, and should be zero.
+ * <p>
+ * Usage: java simpledb.bench.BufferPoolHitBenchmark [hits] [rounds]
+ */
+public class BufferPoolHitBenchmark {
+
+    static final int[] FRAMES = { 50, 5000, 500000 };
+    static final int TABLE_ID = -2;
+    static final int HOT = 50;
+
+    /** A page with no contents. */
+    static class TinyPage implements Page {
+        private final PageId m_pid;
+
+        TinyPage(PageId pid) {
+            m_pid = pid;
+        }
+
+        public PageId getId() {
+            return m_pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return new byte[0];
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /** A table whose pages are made up on demand. */
+    static class TinyFile extends TestUtil.SkeletonFile {
+        TinyFile() {
+            super(TABLE_ID, Utility.getTupleDesc(1));
+        }
+
+        public Page readPage(PageId id) {
+            return new TinyPage(id);
+        }
+    }
+
+    /** Hits random pages of pids, which must be resident. */
+    static double nanosPerHit(BufferPool pool, PageId[] pids, int hits) throws Exception {
+        TransactionId tid = new TransactionId();
+        Random r = new Random(0);
+        int[] order = new int[1 << 16];
+        for (int i = 0; i < order.length; i++)
+            order[i] = r.nextInt(pids.length);
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < hits; i++)
+            sum += pool.getPage(tid, pids[order[i & (order.length - 1)]], Permissions.READ_ONLY).hashCode();
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42)
+            System.out.print("");
+        return (double) elapsed / hits;
+    }
+
+    /** @return the bytes this thread allocates per hit on pids */
+    static double bytesPerHit(BufferPool pool, PageId[] pids, int hits) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        TransactionId tid = new TransactionId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < hits; i++)
+            pool.getPage(tid, pids[i % pids.length], Permissions.READ_ONLY);
+        return (double) (threads.getThreadAllocatedBytes(thread) - before) / hits;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int hits = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Database.getCatalog().addTable(new TinyFile(), "tiny");
+        System.out.println("BufferPoolHitBenchmark: " + hits + " random hits per round");
+        for (int frames : FRAMES) {
+            BufferPool pool = new BufferPool(frames);
+            PageId[] pids = new PageId[frames];
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < frames; i++) {
+                pids[i] = new HeapPageId(TABLE_ID, i);
+                pool.getPage(tid, pids[i], Permissions.READ_ONLY);
+            }
+            // the hot set: HOT pages spread evenly over the pool
+            PageId[] hot = new PageId[Math.min(HOT, frames)];
+            for (int i = 0; i < hot.length; i++)
+                hot[i] = pids[(int) ((long) i * frames / hot.length)];
+            for (int round = 0; round < rounds; round++)
+                System.out.printf("%7d frames, round %d: hot set %6.1f ns/hit, all pages %6.1f ns/hit%n",
+                        frames, round, nanosPerHit(pool, hot, hits), nanosPerHit(pool, pids, hits));
+            System.out.printf("%7d frames: %.3f bytes allocated/hit%n", frames, bytesPerHit(pool, pids, hits));
+        }
+    }
+}
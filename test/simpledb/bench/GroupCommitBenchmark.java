@@ -0,0 +1,82 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import simpledb.*;
+
+/**
+ * Measures commit throughput and latency of LogFile.logCommit with 1, 2,
+ * 4, ... threads, each logging the BEGIN and COMMIT records of empty
+ * transactions to a log in a temporary file, with no group commit delay
+ * and with the given one.  Reports commits per second, the 99th
+ * percentile commit latency, and how many commits each force of the log
+ * made durable.
+ * <p>
+ * Usage: java simpledb.bench.GroupCommitBenchmark [commits per thread]
+ *   [max threads] [group commit delay in us]
+ */
+public class GroupCommitBenchmark {
+
+    static void run(int threads, final int commits, long delay) throws Exception {
+        File f = File.createTempFile("simpledb-log", null);
+        f.deleteOnExit();
+        final LogFile log = new LogFile(f);
+        log.setGroupCommitDelay(delay);
+        final long[][] latencies = new long[threads][commits];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long[] mine = latencies[t];
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < commits; i++) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            long begin = System.nanoTime();
+                            log.logCommit(tid);
+                            mine[i] = System.nanoTime() - begin;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers)
+            w.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+
+        long[] all = new long[threads * commits];
+        for (int t = 0; t < threads; t++)
+            System.arraycopy(latencies[t], 0, all, t * commits, commits);
+        Arrays.sort(all);
+        long p99 = all[(int) (all.length * 0.99)];
+        System.out.printf("%3d threads, delay %5d us: %9.0f commits/s, p99 %8.2f ms, %5.1f commits/force%n",
+                threads, delay, all.length / secs, p99 / 1e6,
+                (double) all.length / log.getCommitForces());
+        log.shutdown();
+        f.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        System.out.println("GroupCommitBenchmark: " + commits + " commits per thread, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        // warm up the JIT
+        run(1, commits, 0);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            run(threads, commits, 0);
+            run(threads, commits, delay);
+        }
+    }
+}
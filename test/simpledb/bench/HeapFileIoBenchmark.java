@@ -0,0 +1,88 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares the page read throughput of HeapFile.readPage, which uses one
+ * long-lived FileChannel (or memory-mapped windows), against the old
+ * open/seek/read/close per page path.
+ * <p>
+ * Usage: java simpledb.bench.HeapFileIoBenchmark [pages] [rounds] [threads]
+ */
+public class HeapFileIoBenchmark {
+
+    /** Reads a page the way HeapFile used to before it kept a channel open. */
+    static HeapPage readPageReopening(HeapFile hf, HeapPageId pid) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r");
+        byte[] buffer = new byte[BufferPool.PAGE_SIZE];
+        long pgNo = pid.pageNumber();
+        raf.seek(pgNo * BufferPool.PAGE_SIZE);
+        raf.read(buffer, 0, BufferPool.PAGE_SIZE);
+        raf.close();
+        return new HeapPage(pid, buffer);
+    }
+
+    static double run(final HeapFile hf, final boolean channel, int threads)
+            throws Exception {
+        final int numPages = hf.numPages();
+        final Exception[] error = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < numPages; i++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), i);
+                            if (channel)
+                                hf.readPage(pid);
+                            else
+                                readPageReopening(hf, pid);
+                        }
+                    } catch (Exception e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread w : workers)
+            w.join();
+        if (error[0] != null)
+            throw error[0];
+        double secs = (System.nanoTime() - start) / 1e9;
+        return (double) numPages * threads / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        // 2 int columns -> 504 tuples per page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        File f = hf.getFile();
+        System.out.println("HeapFileIoBenchmark: " + hf.numPages() + " pages ("
+                + (f.length() >> 20) + " MB), " + threads + " thread(s)");
+
+        // warm up both paths (and the OS page cache)
+        run(hf, false, threads);
+        run(hf, true, threads);
+
+        for (int r = 0; r < rounds; r++) {
+            double reopen = run(hf, false, threads);
+            double channel = run(hf, true, threads);
+            hf.setMemoryMapped(true);
+            double mapped = run(hf, true, threads);
+            hf.setMemoryMapped(false);
+            System.out.printf("round %d: reopen %10.0f pages/s   channel %10.0f pages/s (%.2fx)   mmap %10.0f pages/s (%.2fx)%n",
+                    r, reopen, channel, channel / reopen, mapped, mapped / reopen);
+        }
+        hf.close();
+    }
+}
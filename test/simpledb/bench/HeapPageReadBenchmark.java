@@ -0,0 +1,75 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how many HeapPages per second can be built from raw bytes and
+ * scanned, with and without the eager before-image HeapPage used to take in
+ * its constructor (a full getPageData() serialization per page read).
+ * <p>
+ * Usage: java simpledb.bench.HeapPageReadBenchmark [columns] [fill] [rounds]
+ * where fill is the fraction of slots in use.
+ */
+public class HeapPageReadBenchmark {
+
+    static final int PAGES_PER_ROUND = 20000;
+
+    static double run(HeapPageId pid, byte[] data, boolean eagerBeforeImage, boolean scan)
+            throws Exception {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < PAGES_PER_ROUND; i++) {
+            HeapPage page = new HeapPage(pid, data);
+            if (eagerBeforeImage)
+                sum += page.getPageData().length;
+            if (scan) {
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext())
+                    sum += it.next().getField(0).hashCode();
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        if (sum == 42)
+            System.out.print("");
+        return PAGES_PER_ROUND / secs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        double fill = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Database.getCatalog().addTable(
+                new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(columns)), "bench");
+        HeapPageId pid = new HeapPageId(-1, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Random r = new Random(0);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.getNumEmptySlots() > 0) {
+            Tuple t = Utility.getHeapTuple(r.nextInt(), columns);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        int keep = (int) (tuples.size() * fill);
+        for (int i = keep; i < tuples.size(); i++)
+            page.deleteTuple(tuples.get(i));
+        byte[] data = page.getPageData();
+        System.out.println("HeapPageReadBenchmark: " + columns + " int columns, "
+                + keep + " tuples per page");
+
+        for (int r2 = 0; r2 < rounds; r2++) {
+            double eagerOpen = run(pid, data, true, false);
+            double cowOpen = run(pid, data, false, false);
+            double eagerScan = run(pid, data, true, true);
+            double cowScan = run(pid, data, false, true);
+            System.out.printf("round %d: open   eager %9.0f pages/s  cow %9.0f pages/s (%.2fx)%n",
+                    r2, eagerOpen, cowOpen, cowOpen / eagerOpen);
+            System.out.printf("         scan   eager %9.0f pages/s  cow %9.0f pages/s (%.2fx)%n",
+                    eagerScan, cowScan, cowScan / eagerScan);
+        }
+    }
+}
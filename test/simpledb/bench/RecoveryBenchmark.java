@@ -0,0 +1,153 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures LogFile.recover with 1, 2, 4, ... threads on a large log.  The
+ * log is generated once, in a temporary file, by transactions that each
+ * delete or insert tuples on a few random pages of a table: most commit,
+ * one in ten aborts after its pages were written, pages are written back
+ * now and then, and the last few transactions are left unfinished, their
+ * pages written.  Before each run the log and table are restored to how
+ * they were when the log was generated.  Reports the time of each phase
+ * of recovery and changes recovered per second, and checks that every
+ * run recovers the table to its committed state.
+ * <p>
+ * The table is read from the OS page cache after the first run, so the
+ * runs measure the CPU cost of recovery more than its I/O.
+ * <p>
+ * Usage: java simpledb.bench.RecoveryBenchmark [transactions] [pages]
+ *   [max threads]
+ */
+public class RecoveryBenchmark {
+
+    static final int CHANGES_PER_XACTION = 4;
+    static final int LOSERS = 8;
+
+    /** Deletes a tuple of p, or inserts one if it has none, for tid. */
+    static long change(LogFile log, TransactionId tid, HeapPage p, int i) throws Exception {
+        p.setBeforeImage();
+        Iterator<Tuple> it = p.iterator();
+        if (it.hasNext())
+            p.deleteTuple(it.next());
+        else
+            p.insertTuple(Utility.getHeapTuple(i, 2));
+        return log.logWrite(tid, p.getBeforeImage(), p);
+    }
+
+    /** Overwrites the contents of file to with those of file from. */
+    static void copy(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        RandomAccessFile out = new RandomAccessFile(to, "rw");
+        try {
+            FileChannel src = in.getChannel();
+            long n = src.size();
+            for (long pos = 0; pos < n; )
+                pos += src.transferTo(pos, n - pos, out.getChannel().position(pos));
+            out.setLength(n);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int xactions = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        // 2 int columns -> 504 tuples per page
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        File logFile = File.createTempFile("simpledb-log", null);
+        logFile.deleteOnExit();
+        LogFile log = new LogFile(logFile);
+
+        HeapPage[] page = new HeapPage[pages];
+        for (int pg = 0; pg < pages; pg++)
+            page[pg] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+        Random rand = new Random(0);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < xactions; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            Set<Integer> touched = new HashSet<Integer>();
+            for (int c = 0; c < CHANGES_PER_XACTION; c++) {
+                int pg = rand.nextInt(pages);
+                touched.add(pg);
+                change(log, tid, page[pg], i);
+            }
+            if (i % 10 == 9) {
+                log.forceUpTo(log.getEndLsn());
+                for (int pg : touched)
+                    hf.writePage(page[pg]);
+                log.logAbort(tid);
+                for (int pg : touched)
+                    page[pg] = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+            } else {
+                log.logCommit(tid);
+                if (i % 50 == 0)
+                    hf.writePage(page[touched.iterator().next()]);
+            }
+        }
+        byte[][] expected = new byte[pages][];
+        for (int pg = 0; pg < pages; pg++)
+            expected[pg] = page[pg].getPageData();
+        for (int l = 0; l < LOSERS; l++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            for (int pg = l; pg < pages; pg += pages / 4) {
+                log.forceUpTo(change(log, tid, page[pg], l));
+                hf.writePage(page[pg]);
+            }
+        }
+        log.forceUpTo(log.getEndLsn());
+
+        File savedLog = File.createTempFile("simpledb-log", null);
+        savedLog.deleteOnExit();
+        File savedTable = File.createTempFile("simpledb-table", null);
+        savedTable.deleteOnExit();
+        copy(logFile, savedLog);
+        copy(hf.getFile(), savedTable);
+        System.out.printf("RecoveryBenchmark: %d transactions on %d pages, %d MB of log generated in %d ms, %d processors%n",
+                xactions + LOSERS, pages, logFile.length() >> 20,
+                System.currentTimeMillis() - start, Runtime.getRuntime().availableProcessors());
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int round = 0; round < 2; round++) {
+                copy(savedLog, logFile);
+                copy(savedTable, hf.getFile());
+                LogFile recovering = new LogFile(logFile);
+                recovering.setRecoveryThreads(threads);
+                start = System.nanoTime();
+                recovering.recover();
+                double secs = (System.nanoTime() - start) / 1e9;
+
+                for (int pg = 0; pg < pages; pg++) {
+                    byte[] data = hf.readPage(new HeapPageId(hf.getId(), pg)).getPageData();
+                    if (!Arrays.equals(expected[pg], data))
+                        throw new RuntimeException("page " + pg + " recovered wrongly");
+                }
+                if (round == 0)
+                    continue;   // warm up
+                LogRecovery r = recovering.getLastRecovery();
+                System.out.printf("%2d threads: analysis %5d ms, redo/undo %5d ms, write %5d ms, total %6.0f ms, %9.0f changes/s%n",
+                        threads, r.getMillis(LogRecovery.Phase.ANALYSIS),
+                        r.getMillis(LogRecovery.Phase.REDO_UNDO), r.getMillis(LogRecovery.Phase.WRITE),
+                        secs * 1000, r.getChanges() / secs);
+            }
+        }
+        hf.close();
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Runs point lookups against the pages of a small, hot table while another
+ * thread scans a table several times the size of the BufferPool, and
+ * measures the fraction of lookups that hit in the BufferPool.  A
+ * scan-resistant replacement policy keeps the hot pages resident.
+ */
+public class MixedWorkloadTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 50;
+    private static final int HOT_PAGES = 30;
+    private static final int SCAN_PAGES = 6 * POOL_PAGES;
+    private static final int TUPLES_PER_PAGE =
+        BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+
+    /** A HeapFile that counts the pages read from disk. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicLong reads = new AtomicLong();
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile hot;
+    private CountingHeapFile big;
+    private CountingHeapFile medium;
+
+    @Before public void createTables() throws Exception {
+        hot = open(SystemTestUtil.createRandomHeapFileUnopened(2, HOT_PAGES * TUPLES_PER_PAGE,
+                1000, null, null), "hot");
+        big = open(SystemTestUtil.createRandomHeapFileUnopened(2, SCAN_PAGES * TUPLES_PER_PAGE,
+                1000, null, null), "big");
+        // no larger than the pool, so scanned through it rather than a ring
+        medium = open(SystemTestUtil.createRandomHeapFileUnopened(2, POOL_PAGES * TUPLES_PER_PAGE,
+                1000, null, null), "medium");
+        assertTrue(hot.numPages() == HOT_PAGES && big.numPages() == SCAN_PAGES);
+    }
+
+    private CountingHeapFile open(File f, String name) {
+        f.deleteOnExit();
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /**
+     * @return the hit ratio of lookups on the hot table while the big table
+     *   is scanned twice
+     */
+    private double hotHitRatio(ReplacementPolicy.Kind kind) throws Exception {
+        return hotHitRatio(kind, big, 2);
+    }
+
+    /**
+     * @return the hit ratio of lookups on the hot table while the table
+     *   scanned is scanned passes times
+     */
+    private double hotHitRatio(ReplacementPolicy.Kind kind, final CountingHeapFile scanned,
+                               final int passes) throws Exception {
+        final BufferPool pool = Database.resetBufferPool(POOL_PAGES, kind);
+        final TransactionId tid = new TransactionId();
+        Random r = new Random(0);
+
+        // warm up: every hot page is read, then used a few more times
+        for (int i = 0; i < 10 * HOT_PAGES; i++)
+            pool.getPage(tid, new HeapPageId(hot.getId(), i % HOT_PAGES), Permissions.READ_ONLY);
+
+        final AtomicBoolean scanning = new AtomicBoolean(true);
+        final Exception[] failure = new Exception[1];
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    for (int pass = 0; pass < passes; pass++) {
+                        SeqScan scan = new SeqScan(tid, scanned.getId(), "scanned");
+                        scan.open();
+                        while (scan.hasNext())
+                            scan.next();
+                        scan.close();
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                } finally {
+                    scanning.set(false);
+                }
+            }
+        };
+
+        long readsBefore = hot.reads.get();
+        long done = scanned.reads.get();
+        long lookups = 0;
+        scanner.start();
+        while (scanning.get()) {
+            // one lookup per page the scan reads, so that each hot page is
+            // used about once every HOT_PAGES scanned pages: too rarely for
+            // recency alone to keep the hot set in a pool of POOL_PAGES
+            long now = scanned.reads.get();
+            if (now == done) {
+                Thread.yield();
+                continue;
+            }
+            for (; done < now; done++) {
+                pool.getPage(tid, new HeapPageId(hot.getId(), r.nextInt(HOT_PAGES)), Permissions.READ_ONLY);
+                lookups++;
+            }
+        }
+        scanner.join();
+        if (failure[0] != null)
+            throw failure[0];
+        double ratio = 1.0 - (double) (hot.reads.get() - readsBefore) / lookups;
+        System.out.printf("MixedWorkloadTest: %s hot set hit ratio %.4f (%d lookups, prefetch window %d)%n",
+                kind, ratio, lookups, scanned.getPrefetchWindow());
+        return ratio;
+    }
+
+    /**
+     * 2Q and ARC keep the hot set resident during the scan; CLOCK, which
+     * only knows recency, is measured for comparison.
+     */
+    @Test public void hotSetSurvivesScan() throws Exception {
+        double clock = hotHitRatio(ReplacementPolicy.Kind.CLOCK);
+        double twoQ = hotHitRatio(ReplacementPolicy.Kind.TWO_Q);
+        double arc = hotHitRatio(ReplacementPolicy.Kind.ARC);
+        assertTrue(twoQ > 0.95);
+        assertTrue(arc > 0.95);
+        assertTrue(twoQ >= clock && arc >= clock);
+    }
+
+    /**
+     * Pages read ahead of a scan through the pool are not taken for pages
+     * used twice when the scan reaches them, so 2Q and ARC keep the hot set
+     * resident with read-ahead on too.  One pass only: ARC rightly takes a
+     * loop over a table no larger than the pool for pages used again.
+     */
+    @Test public void hotSetSurvivesPrefetchingScan() throws Exception {
+        medium.setPrefetchWindow(8);
+        double twoQ = hotHitRatio(ReplacementPolicy.Kind.TWO_Q, medium, 1);
+        double arc = hotHitRatio(ReplacementPolicy.Kind.ARC, medium, 1);
+        assertTrue(twoQ > 0.95);
+        assertTrue(arc > 0.95);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MixedWorkloadTest.class);
+    }
+}
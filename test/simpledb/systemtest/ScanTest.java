@@ -104,6 +104,29 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that read-ahead returns the same tuples and accounts for
+     * every page the scan visits. */
+    @Test public void testPrefetch() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992*PAGES, 1000, null, tuples);
+        f.setPrefetchWindow(8);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(PAGES, f.getPrefetchHits() + f.getPrefetchMisses());
+
+        // closing a scan early stops it from counting further pages
+        f.resetPrefetchStats();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "");
+        scan.open();
+        for (int i = 0; i < 992 * 2 + 1; ++i)
+            scan.next();
+        scan.close();
+        assertEquals(3, f.getPrefetchHits() + f.getPrefetchMisses());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
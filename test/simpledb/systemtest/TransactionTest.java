@@ -0,0 +1,130 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.*;
+
+/**
+ * Runs several threads that each increment the value in a one-row table,
+ * concurrently and without any synchronization other than SimpleDB's own
+ * locking: each reads the value, deletes the row and inserts the value
+ * plus one, then commits, retrying when it is aborted as a deadlock
+ * victim.  No increment may be lost, and no transaction may be aborted
+ * but to break a deadlock.
+ */
+public class TransactionTest extends SimpleDbTestBase {
+    /** Increments the value in table until it has done so once. */
+    static class Incrementer extends Thread {
+        private final HeapFile table;
+        private final CyclicBarrier start;
+        Exception error;
+        int aborts = 0;
+
+        Incrementer(HeapFile table, CyclicBarrier start) {
+            this.table = table;
+            this.start = start;
+        }
+
+        public void run() {
+            try {
+                start.await();
+                while (true) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    try {
+                        increment(t.getId());
+                        t.commit();
+                        return;
+                    } catch (TransactionAbortedException e) {
+                        aborts++;
+                        t.abort();
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private void increment(TransactionId tid) throws Exception {
+            SeqScan scan = new SeqScan(tid, table.getId(), "");
+            scan.open();
+            Tuple row = scan.next();
+            scan.close();
+            int value = ((IntField) row.getField(0)).getValue();
+
+            Delete delete = new Delete(tid, new TupleIterator(row.getTupleDesc(), Arrays.asList(row)));
+            delete.open();
+            delete.next();
+            delete.close();
+
+            Tuple next = new Tuple(row.getTupleDesc());
+            next.setField(0, new IntField(value + 1));
+            next.setField(1, new IntField(value + 1));
+            Insert insert = new Insert(tid, new TupleIterator(row.getTupleDesc(), Arrays.asList(next)),
+                    table.getId());
+            insert.open();
+            insert.next();
+            insert.close();
+        }
+    }
+
+    private void incrementConcurrently(int threads) throws Exception {
+        HashMap<Integer, Integer> columns = new HashMap<Integer, Integer>();
+        columns.put(0, 0);
+        columns.put(1, 0);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1, columns, null);
+        DeadlockDetector detector = Database.getBufferPool().getDeadlockDetector();
+
+        CyclicBarrier start = new CyclicBarrier(threads);
+        Incrementer[] incrementers = new Incrementer[threads];
+        for (int i = 0; i < threads; i++) {
+            incrementers[i] = new Incrementer(table, start);
+            incrementers[i].start();
+        }
+        int aborts = 0;
+        for (Incrementer inc : incrementers) {
+            inc.join();
+            if (inc.error != null)
+                throw inc.error;
+            aborts += inc.aborts;
+        }
+        System.out.println("TransactionTest: " + threads + " threads, " + aborts + " aborts; "
+                + detector);
+        assertEquals(aborts, detector.getDeadlocks());
+
+        // the table has a single row holding the number of increments
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(threads, threads)));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    @Test public void testSingleThread() throws Exception {
+        incrementConcurrently(1);
+    }
+
+    @Test public void testTwoThreads() throws Exception {
+        incrementConcurrently(2);
+    }
+
+    @Test public void testFiveThreads() throws Exception {
+        incrementConcurrently(5);
+    }
+
+    @Test public void testTenThreads() throws Exception {
+        incrementConcurrently(10);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TransactionTest.class);
+    }
+}